@@ -0,0 +1,117 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import ru.proxima.commons.ajax.AJAXEventEmitter;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXRequest;
+import ru.proxima.commons.ajax.AJAXResponse;
+import ru.proxima.commons.ajax.JSONStreamWriter;
+import ru.proxima.commons.ajax.impl.AJAXHandlerEventStream;
+import ru.proxima.commons.ajax.impl.AJAXHandlerJSONAsync;
+import ru.proxima.commons.ajax.impl.AJAXHandlerJSONIn;
+import ru.proxima.commons.ajax.impl.AJAXHandlerJSONInOut;
+import ru.proxima.commons.ajax.impl.AJAXHandlerJSONInRaw;
+import ru.proxima.commons.ajax.impl.AJAXHandlerJSONOut;
+import ru.proxima.commons.ajax.impl.AJAXHandlerJSONStream;
+import ru.proxima.commons.ajax.impl.AJAXHandlerRaw;
+import ru.proxima.commons.ajax.impl.AJAXHandlerText;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Обработчики модуля bench - по одному на каждый тип, все отвечают {@link Payload#RESPONSE},
+ * а также обработчик, всегда завершающийся ошибкой
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class BenchHandlers {
+
+	private BenchHandlers() {}
+
+	public static final class Text extends AJAXHandlerText {
+		@Override public void process(AJAXRequest request, PrintWriter out) {
+			out.print(Payload.RESPONSE.toString());
+		}
+	}
+
+	public static final class Raw extends AJAXHandlerRaw {
+		@Override public void process(AJAXRequest request, AJAXResponse response) throws AJAXExecuteException {
+			response.setContentType("application/json; charset=UTF-8");
+			try {
+				response.getWriter().print(Payload.RESPONSE.toString());
+			} catch (IOException ex) {
+				throw new AJAXExecuteException(ex);
+			}
+		}
+	}
+
+	public static final class JSONIn extends AJAXHandlerJSONIn {
+		@Override public void process(JSONObject params, PrintWriter out) {
+			out.print(Payload.RESPONSE.toString());
+		}
+	}
+
+	public static final class JSONInRaw extends AJAXHandlerJSONInRaw {
+		@Override public void process(JSONObject params, AJAXResponse response) throws AJAXExecuteException {
+			try {
+				response.getWriter().print(Payload.RESPONSE.toString());
+			} catch (IOException ex) {
+				throw new AJAXExecuteException(ex);
+			}
+		}
+	}
+
+	public static final class JSONOut extends AJAXHandlerJSONOut {
+		@Override public Object process(AJAXRequest request) {
+			return Payload.RESPONSE;
+		}
+	}
+
+	public static final class JSONInOut extends AJAXHandlerJSONInOut {
+		@Override public Object process(JSONObject params) {
+			return Payload.RESPONSE;
+		}
+	}
+
+	public static final class JSONAsync extends AJAXHandlerJSONAsync {
+		@Override public CompletionStage<Object> processAsync(JSONObject params) {
+			return CompletableFuture.completedFuture(Payload.RESPONSE);
+		}
+	}
+
+	public static final class JSONStream extends AJAXHandlerJSONStream {
+		@Override public void process(JSONObject params, JSONStreamWriter out) {
+			out.beginObject().key("total").value(Payload.RESPONSE.getInt("total")).key("items").beginArray();
+			final JSONArray items = Payload.RESPONSE.getJSONArray("items");
+			for (int i = 0; i < items.length(); i++) {
+				final JSONObject item = items.getJSONObject(i);
+				out.beginObject();
+				for (Iterator<String> keys = item.keys(); keys.hasNext();) {
+					final String key = keys.next();
+					out.key(key).value(item.get(key));
+				}
+				out.endObject();
+			}
+			out.endArray().endObject();
+		}
+	}
+
+	public static final class EventStream extends AJAXHandlerEventStream {
+		@Override public void process(JSONObject params, AJAXEventEmitter events) throws AJAXExecuteException {
+			try {
+				events.complete(Payload.RESPONSE);
+			} catch (IOException ex) {
+				throw new AJAXExecuteException(ex);
+			}
+		}
+	}
+
+	public static final class Failing extends AJAXHandlerJSONInOut {
+		@Override public Object process(JSONObject params) throws AJAXExecuteException {
+			throw new AJAXExecuteException("Отказ обработчика");
+		}
+	}
+
+}
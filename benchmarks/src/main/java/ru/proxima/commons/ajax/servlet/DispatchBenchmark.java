@@ -0,0 +1,64 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * Полный путь запроса через сервлет для обработчика каждого типа: поиск, разбор params,
+ * исполнение и печать ответа. Имена действий соответствуют обработчикам {@link BenchHandlers}
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DispatchBenchmark {
+
+	@Param({"Text", "Raw", "JSONIn", "JSONInRaw", "JSONOut", "JSONInOut", "JSONAsync", "JSONStream",
+		"EventStream"})
+	public String action;
+
+	@Param({"POST", "GET"})
+	public String method;
+
+	private AJAX servlet;
+	private StandInRequest request;
+	private StandInResponse response;
+
+	@Setup public void setUp() {
+		servlet = new AJAX();
+		servlet.init(StandIns.config(Collections.<String, String>emptyMap()));
+		response = new StandInResponse();
+		request = new StandInRequest(method, response)
+			.param("module", "bench")
+			.param("action", action)
+			.param("params", Payload.SMALL_PARAMS);
+	}
+
+	@TearDown public void tearDown() {
+		servlet.destroy();
+	}
+
+	@Benchmark public long dispatch() throws ServletException, IOException {
+		request.clear();
+		response.clear();
+		servlet.service(request, response);
+		return response.result();
+	}
+
+}
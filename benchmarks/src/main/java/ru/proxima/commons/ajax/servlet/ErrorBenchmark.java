@@ -0,0 +1,73 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * Обработка ошибок: отказ обработчика, обращение к незагруженному обработчику и некорректное
+ * JSON-тело запроса. Журналирование идёт в NOP-реализацию slf4j, поэтому замер включает
+ * формирование сообщений и исключений, но не их запись
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ErrorBenchmark {
+
+	private AJAX servlet;
+	private StandInResponse response;
+	private StandInRequest failing;
+	private StandInRequest missing;
+	private StandInRequest malformed;
+
+	@Setup public void setUp() {
+		servlet = new AJAX();
+		servlet.init(StandIns.config(Collections.<String, String>emptyMap()));
+		response = new StandInResponse();
+		failing = new StandInRequest("POST", response)
+			.param("module", "bench").param("action", "Failing").param("params", Payload.SMALL_PARAMS);
+		missing = new StandInRequest("POST", response)
+			.param("module", "bench").param("action", "Missing").param("params", Payload.SMALL_PARAMS);
+		malformed = new StandInRequest("POST", response)
+			.param("module", "bench").param("action", "JSONInOut").body("application/json", "{\"id\": 1,");
+	}
+
+	@TearDown public void tearDown() {
+		servlet.destroy();
+	}
+
+	@Benchmark public long handlerFailure() throws ServletException, IOException {
+		return call(failing);
+	}
+
+	@Benchmark public long handlerMissing() throws ServletException, IOException {
+		return call(missing);
+	}
+
+	@Benchmark public long malformedBody() throws ServletException, IOException {
+		return call(malformed);
+	}
+
+	private long call(StandInRequest request) throws ServletException, IOException {
+		request.clear();
+		response.clear();
+		servlet.service(request, response);
+		return response.result();
+	}
+
+}
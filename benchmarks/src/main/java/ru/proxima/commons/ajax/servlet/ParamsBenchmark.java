@@ -0,0 +1,60 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.proxima.commons.json.JSONObject;
+import ru.proxima.commons.json.JSONTokener;
+/**
+ * Разбор параметра params: из строки (поле формы), из потока байт и из тела запроса
+ * через {@link RequestBody} с ограничением размера
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParamsBenchmark {
+
+	@Param({"small", "large"})
+	public String size;
+
+	private String params;
+	private byte[] bytes;
+	private StandInRequest request;
+
+	@Setup public void setUp() {
+		params = "small".equals(size) ? Payload.SMALL_PARAMS : Payload.LARGE_PARAMS;
+		bytes = params.getBytes(StandardCharsets.UTF_8);
+		request = new StandInRequest("POST", new StandInResponse()).body("application/json", params);
+	}
+
+	@Benchmark public JSONObject fromString() {
+		return new JSONObject(params);
+	}
+
+	@Benchmark public JSONObject fromStream() {
+		return new JSONObject(new JSONTokener(
+			new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)));
+	}
+
+	@Benchmark public JSONObject fromRequestBody() throws IOException {
+		return new JSONObject(new JSONTokener(RequestBody.openReader(request, 16 * 1024 * 1024)));
+	}
+
+}
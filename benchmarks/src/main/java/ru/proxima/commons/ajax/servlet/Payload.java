@@ -0,0 +1,58 @@
+package ru.proxima.commons.ajax.servlet;
+
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Типичные для портала параметры и ответы обработчиков
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class Payload {
+/**
+ * Параметры небольшого запроса (фильтр списка)
+ */
+	static final String SMALL_PARAMS = new JSONObject()
+		.put("id", 12345)
+		.put("filter", "Отчёт по продажам")
+		.put("from", "2024-01-01")
+		.put("to", "2024-12-31")
+		.put("page", 1)
+		.put("pageSize", 50)
+		.toString();
+/**
+ * Параметры крупного запроса (сохранение формы с табличной частью)
+ */
+	static final String LARGE_PARAMS = large();
+/**
+ * Ответ обработчика: страница списка из 50 строк
+ */
+	static final JSONObject RESPONSE = response();
+
+	private Payload() {}
+
+	private static String large() {
+		final JSONArray rows = new JSONArray();
+		for (int i = 0; i < 200; i++) {
+			rows.put(new JSONObject()
+				.put("row", i)
+				.put("code", "A-" + i)
+				.put("name", "Наименование позиции " + i)
+				.put("amount", i * 1.5)
+				.put("active", 0 == i % 2));
+		}
+		return new JSONObject().put("document", 42).put("comment", "Комментарий \"в кавычках\"\n")
+			.put("rows", rows).toString();
+	}
+
+	private static JSONObject response() {
+		final JSONArray items = new JSONArray();
+		for (int i = 0; i < 50; i++) {
+			items.put(new JSONObject()
+				.put("id", 1000 + i)
+				.put("title", "Строка отчёта " + i)
+				.put("value", i * 2.25)
+				.put("tags", new JSONArray().put("a").put("b")));
+		}
+		return new JSONObject().put("total", 50).put("items", items);
+	}
+
+}
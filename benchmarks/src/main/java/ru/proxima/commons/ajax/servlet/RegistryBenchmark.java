@@ -0,0 +1,59 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.proxima.commons.ajax.AJAXHandler;
+/**
+ * Поиск обработчика в реестре: одиночный поиск и поиск из многих потоков
+ * во время непрерывной перезагрузки обработчиков
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RegistryBenchmark {
+
+	private ClassLoader loader;
+
+	@Setup public void setUp() {
+		loader = RegistryBenchmark.class.getClassLoader();
+		AJAX.loadHandlers(loader);
+	}
+
+	@Benchmark public AJAXHandler getHandler() {
+		return AJAX.getHandler("JSONInOut", "bench");
+	}
+
+	@Benchmark public AJAXHandler getHandlerDefaultModule() {
+		return AJAX.getHandler("Metrics", null);
+	}
+/**
+ * Семь читающих потоков против одного, перезагружающего обработчики: пропускная способность
+ * чтения не должна заметно отличаться от {@link #getHandler()}
+ * @return Найденный обработчик
+ */
+	@Benchmark @Group("reload") @GroupThreads(7)
+	public AJAXHandler lookupDuringReload() {
+		return AJAX.getHandler("JSONInOut", "bench");
+	}
+
+	@Benchmark @Group("reload") @GroupThreads(1)
+	public void reload() {
+		AJAX.loadHandlers(loader);
+	}
+
+}
@@ -0,0 +1,37 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * Сериализация ответа обработчика: toString(), перевод в байты UTF-8 и вычисление ETag
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SerializationBenchmark {
+
+	@Benchmark public String toJSONString() {
+		return Payload.RESPONSE.toString();
+	}
+
+	@Benchmark public SerializedBody serializedBody() {
+		return SerializedBody.of(Payload.RESPONSE);
+	}
+
+	@Benchmark public String etag() {
+		return SerializedBody.of(Payload.RESPONSE).etag();
+	}
+
+}
@@ -0,0 +1,89 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+/**
+ * Асинхронный контекст в памяти: задачи исполняются в вызывающем потоке,
+ * а завершение лишь отмечается, т.к. замер ожидает ответ синхронно
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class StandInAsyncContext implements AsyncContext {
+
+	private final ServletRequest request;
+	private final ServletResponse response;
+	private final List<AsyncListener> listeners = new ArrayList<>(2);
+	private long timeout = 30000;
+	private boolean completed;
+
+	StandInAsyncContext(ServletRequest request, ServletResponse response) {
+		this.request = request;
+		this.response = response;
+	}
+
+	boolean isCompleted() {
+		return completed;
+	}
+
+	@Override public ServletRequest getRequest() {
+		return request;
+	}
+
+	@Override public ServletResponse getResponse() {
+		return response;
+	}
+
+	@Override public boolean hasOriginalRequestAndResponse() {
+		return request instanceof StandInRequest && response instanceof StandInResponse;
+	}
+
+	@Override public void dispatch() {
+		throw new UnsupportedOperationException("AsyncContext.dispatch");
+	}
+
+	@Override public void dispatch(String path) {
+		throw new UnsupportedOperationException("AsyncContext.dispatch");
+	}
+
+	@Override public void dispatch(ServletContext context, String path) {
+		throw new UnsupportedOperationException("AsyncContext.dispatch");
+	}
+
+	@Override public void complete() {
+		completed = true;
+	}
+
+	@Override public void start(Runnable run) {
+		run.run();
+	}
+
+	@Override public void addListener(AsyncListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) {
+		listeners.add(listener);
+	}
+
+	@Override public <T extends AsyncListener> T createListener(Class<T> type) throws ServletException {
+		try {
+			return type.newInstance();
+		} catch (InstantiationException | IllegalAccessException ex) {
+			throw new ServletException(ex);
+		}
+	}
+
+	@Override public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override public long getTimeout() {
+		return timeout;
+	}
+
+}
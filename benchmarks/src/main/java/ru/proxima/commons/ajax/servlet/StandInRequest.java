@@ -0,0 +1,168 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+/**
+ * Запрос в памяти: метод, параметры, заголовки и тело задаются при подготовке замера
+ * и не меняются между вызовами, поэтому один запрос многократно передаётся сервлету
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class StandInRequest extends HttpServletRequestWrapper {
+
+	private final String method;
+	private final StandInResponse response;
+	private final Map<String, String[]> parameters = new LinkedHashMap<>();
+	private final Map<String, String> headers = new HashMap<>();
+	private byte[] body = new byte[0];
+	private String contentType;
+	private String characterEncoding;
+	private AsyncContext async;
+
+	StandInRequest(String method, StandInResponse response) {
+		super(StandIns.unsupported(HttpServletRequest.class));
+		this.method = method;
+		this.response = response;
+	}
+
+	StandInRequest param(String name, String value) {
+		parameters.put(name, new String[] {value});
+		return this;
+	}
+
+	StandInRequest header(String name, String value) {
+		headers.put(name.toLowerCase(), value);
+		return this;
+	}
+
+	StandInRequest body(String contentType, String body) {
+		this.contentType = contentType;
+		this.body = body.getBytes(StandardCharsets.UTF_8);
+		return this;
+	}
+/**
+ * Сброс асинхронного режима перед очередным вызовом
+ */
+	void clear() {
+		async = null;
+	}
+
+	@Override public String getMethod() {
+		return method;
+	}
+
+	@Override public String getParameter(String name) {
+		final String[] values = parameters.get(name);
+		return null == values ? null : values[0];
+	}
+
+	@Override public String[] getParameterValues(String name) {
+		return parameters.get(name);
+	}
+
+	@Override public Map<String, String[]> getParameterMap() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	@Override public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(parameters.keySet());
+	}
+
+	@Override public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	@Override public Enumeration<String> getHeaders(String name) {
+		final String value = getHeader(name);
+		return null == value ? Collections.emptyEnumeration() : Collections.enumeration(Collections.singleton(value));
+	}
+
+	@Override public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(headers.keySet());
+	}
+
+	@Override public String getRemoteAddr() {
+		return "127.0.0.1";
+	}
+
+	@Override public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	@Override public void setCharacterEncoding(String encoding) {
+		this.characterEncoding = encoding;
+	}
+
+	@Override public String getContentType() {
+		return contentType;
+	}
+
+	@Override public int getContentLength() {
+		return body.length;
+	}
+
+	@Override public long getContentLengthLong() {
+		return body.length;
+	}
+
+	@Override public ServletInputStream getInputStream() {
+		final ByteArrayInputStream in = new ByteArrayInputStream(body);
+		return new ServletInputStream() {
+			@Override public int read() {
+				return in.read();
+			}
+
+			@Override public int read(byte[] b, int off, int len) {
+				return in.read(b, off, len);
+			}
+
+			@Override public boolean isFinished() {
+				return 0 == in.available();
+			}
+
+			@Override public boolean isReady() {
+				return true;
+			}
+
+			@Override public void setReadListener(ReadListener listener) {
+				throw new UnsupportedOperationException("ServletInputStream.setReadListener");
+			}
+		};
+	}
+
+	@Override public AsyncContext startAsync() {
+		return startAsync(this, response);
+	}
+
+	@Override public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+		async = new StandInAsyncContext(request, response);
+		return async;
+	}
+
+	@Override public boolean isAsyncStarted() {
+		return null != async;
+	}
+
+	@Override public boolean isAsyncSupported() {
+		return true;
+	}
+
+	@Override public AsyncContext getAsyncContext() {
+		if (null == async) {
+			throw new IllegalStateException("Асинхронный режим не включён");
+		}
+		return async;
+	}
+
+}
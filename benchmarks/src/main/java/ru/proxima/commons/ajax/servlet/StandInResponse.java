@@ -0,0 +1,179 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+/**
+ * Ответ в памяти: тело не сохраняется, а только подсчитывается, чтобы замер
+ * не зависел от роста буфера. Перед каждым вызовом ответ сбрасывается {@link #clear()}
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class StandInResponse extends HttpServletResponseWrapper {
+
+	private final Map<String, String> headers = new HashMap<>();
+	private final CountingStream stream = new CountingStream();
+	private PrintWriter writer;
+	private String contentType;
+	private String characterEncoding = "ISO-8859-1";
+	private int status = SC_OK;
+	private boolean committed;
+
+	private static final class CountingStream extends ServletOutputStream {
+		long written;
+
+		@Override public void write(int b) {
+			written++;
+		}
+
+		@Override public void write(byte[] b, int off, int len) {
+			written += len;
+		}
+
+		@Override public boolean isReady() {
+			return true;
+		}
+
+		@Override public void setWriteListener(WriteListener listener) {
+			throw new UnsupportedOperationException("ServletOutputStream.setWriteListener");
+		}
+	}
+
+	StandInResponse() {
+		super(StandIns.unsupported(HttpServletResponse.class));
+	}
+/**
+ * Подготовка к очередному вызову
+ */
+	void clear() {
+		headers.clear();
+		stream.written = 0;
+		writer = null;
+		contentType = null;
+		characterEncoding = "ISO-8859-1";
+		status = SC_OK;
+		committed = false;
+	}
+/**
+ * Результат вызова для {@link org.openjdk.jmh.infra.Blackhole}
+ * @return Код ответа, умноженный на 2^32, плюс число отправленных байт
+ */
+	long result() {
+		if (null != writer) {
+			writer.flush();
+		}
+		return ((long)status << 32) + stream.written;
+	}
+
+	@Override public void setContentType(String type) {
+		contentType = type;
+		final int charset = null == type ? -1 : type.indexOf("charset=");
+		if (charset >= 0) {
+			characterEncoding = type.substring(charset + "charset=".length()).trim();
+		}
+	}
+
+	@Override public String getContentType() {
+		return contentType;
+	}
+
+	@Override public void setCharacterEncoding(String encoding) {
+		characterEncoding = encoding;
+	}
+
+	@Override public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	@Override public void setHeader(String name, String value) {
+		headers.put(name.toLowerCase(), value);
+	}
+
+	@Override public void addHeader(String name, String value) {
+		headers.merge(name.toLowerCase(), value, (previous, next) -> previous + ", " + next);
+	}
+
+	@Override public boolean containsHeader(String name) {
+		return headers.containsKey(name.toLowerCase());
+	}
+
+	@Override public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	@Override public Collection<String> getHeaders(String name) {
+		final String value = getHeader(name);
+		return null == value ? Collections.<String>emptyList() : Collections.singletonList(value);
+	}
+
+	@Override public Collection<String> getHeaderNames() {
+		return new ArrayList<>(headers.keySet());
+	}
+
+	@Override public void setStatus(int status) {
+		this.status = status;
+	}
+
+	@Override public int getStatus() {
+		return status;
+	}
+
+	@Override public void sendError(int status) {
+		sendError(status, null);
+	}
+
+	@Override public void sendError(int status, String message) {
+		this.status = status;
+		committed = true;
+	}
+
+	@Override public void setContentLength(int length) {
+		headers.put("content-length", Integer.toString(length));
+	}
+
+	@Override public void setContentLengthLong(long length) {
+		headers.put("content-length", Long.toString(length));
+	}
+
+	@Override public ServletOutputStream getOutputStream() {
+		return stream;
+	}
+
+	@Override public PrintWriter getWriter() {
+		if (null == writer) {
+			writer = new PrintWriter(new OutputStreamWriter(stream, Charset.forName(characterEncoding)));
+		}
+		return writer;
+	}
+
+	@Override public boolean isCommitted() {
+		return committed;
+	}
+
+	@Override public void flushBuffer() {
+		committed = true;
+	}
+
+	@Override public void resetBuffer() {
+		stream.written = 0;
+	}
+
+	@Override public void reset() {
+		clear();
+	}
+
+	@Override public int getBufferSize() {
+		return 8192;
+	}
+
+	@Override public void setBufferSize(int size) {}
+
+}
@@ -0,0 +1,82 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+/**
+ * Заготовки окружения контейнера для замеров. Методы, не переопределённые в конкретных
+ * заменителях, делегируются объекту, бросающему исключение, - так замер сразу сообщает
+ * об обращении сервлета к ещё не смоделированной части Servlet API
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class StandIns {
+
+	private StandIns() {}
+/**
+ * Объект интерфейса, каждый метод которого бросает {@link UnsupportedOperationException}
+ * @param <T> Тип интерфейса
+ * @param type Интерфейс
+ * @return Объект интерфейса
+ */
+	static <T> T unsupported(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+			(proxy, method, args) -> {
+				throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+			}));
+	}
+/**
+ * Конфигурация сервлета. Контекст сервлета используется только при инициализации,
+ * поэтому моделируется через {@link Proxy}; атрибуты контекста хранятся в обычной карте
+ * @param initParams Параметры сервлета
+ * @return Конфигурация сервлета
+ */
+	static ServletConfig config(Map<String, String> initParams) {
+		final Map<String, Object> attributes = new ConcurrentHashMap<>();
+		final ServletContext context = (ServletContext)Proxy.newProxyInstance(ServletContext.class.getClassLoader(),
+			new Class<?>[] {ServletContext.class}, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getRealPath":
+						return System.getProperty("java.io.tmpdir");
+					case "getAttributeNames":
+						return Collections.enumeration(attributes.keySet());
+					case "getAttribute":
+						return attributes.get((String)args[0]);
+					case "setAttribute":
+						if (null == args[1]) {
+							attributes.remove((String)args[0]);
+						} else {
+							attributes.put((String)args[0], args[1]);
+						}
+						return null;
+					case "removeAttribute":
+						attributes.remove((String)args[0]);
+						return null;
+					default:
+						break;
+				}
+				throw new UnsupportedOperationException("ServletContext." + method.getName());
+			});
+		return new ServletConfig() {
+			@Override public String getServletName() {
+				return "AJAX";
+			}
+
+			@Override public ServletContext getServletContext() {
+				return context;
+			}
+
+			@Override public String getInitParameter(String name) {
+				return initParams.get(name);
+			}
+
+			@Override public Enumeration<String> getInitParameterNames() {
+				return Collections.enumeration(initParams.keySet());
+			}
+		};
+	}
+
+}
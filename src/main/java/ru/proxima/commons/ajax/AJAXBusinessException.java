@@ -0,0 +1,68 @@
+package ru.proxima.commons.ajax;
+
+import javax.servlet.http.HttpServletResponse;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Ожидаемая ошибка прикладной логики (некорректные входные данные, нарушение правила и т.п.).
+ * Стек вызовов не заполняется, поэтому исключение дёшево создавать даже при потоке ошибочных
+ * запросов; в журнал оно пишется без стека, а клиент получает стандартное сообщение об ошибке,
+ * дополненное кодом и признаком допустимости повтора (см. {@link CommonAJAXHandler#getErrorJSON(String, String, boolean)}).
+ * Неизменяемо, поэтому заранее созданный экземпляр можно бросать повторно
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class AJAXBusinessException extends AJAXExecuteException {
+
+	private final String code;
+	private final boolean retryable;
+	private final int httpStatus;
+/**
+ * Конструктор ошибки, отправляемой клиенту с кодом ответа 200, как прочие ошибки обработчиков
+ * @param code Код ошибки для клиента
+ * @param message Сообщение об ошибке
+ */
+	public AJAXBusinessException(String code, String message) {
+		this(code, message, false, HttpServletResponse.SC_OK);
+	}
+/**
+ * Конструктор
+ * @param code Код ошибки для клиента
+ * @param message Сообщение об ошибке
+ * @param retryable Может ли повтор того же вызова завершиться успешно
+ * @param httpStatus Код ответа HTTP
+ */
+	public AJAXBusinessException(String code, String message, boolean retryable, int httpStatus) {
+		super(message, false);
+		this.code = code;
+		this.retryable = retryable;
+		this.httpStatus = httpStatus;
+	}
+/**
+ * Код ошибки для клиента
+ * @return Код ошибки
+ */
+	public String getCode() {
+		return code;
+	}
+/**
+ * Может ли повтор того же вызова завершиться успешно
+ * @return true, если вызов можно повторить
+ */
+	public boolean isRetryable() {
+		return retryable;
+	}
+/**
+ * Код ответа HTTP, с которым клиенту отправляется ошибка
+ * @return Код ответа
+ */
+	public int getHttpStatus() {
+		return httpStatus;
+	}
+/**
+ * Стандартное сообщение об ошибке с кодом и признаком повтора
+ * @return JSONObject с сообщением об ошибке
+ */
+	public JSONObject toJSON() {
+		return CommonAJAXHandler.getErrorJSON(getLocalizedMessage(), code, retryable);
+	}
+
+}
@@ -0,0 +1,76 @@
+package ru.proxima.commons.ajax;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+/**
+ * Неизменяемый контекст, передаваемый обработчикам однократно при загрузке: корень приложения,
+ * параметры сервлета и общие ресурсы (пулы соединений и т.п.), зарегистрированные
+ * как атрибуты контекста сервлета до его инициализации. Чтение не требует синхронизации
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class AJAXContext {
+/**
+ * Пустой контекст для обработчиков, загруженных до инициализации сервлета
+ */
+	public static final AJAXContext EMPTY = new AJAXContext(null,
+		Collections.<String, String>emptyMap(), Collections.<String, Object>emptyMap());
+
+	private final String siteRoot;
+	private final Map<String, String> initParameters;
+	private final Map<String, Object> attributes;
+/**
+ * Конструктор, копирующий переданные параметры и ресурсы
+ * @param siteRoot Корень приложения в файловой системе, может быть null
+ * @param initParameters Параметры сервлета
+ * @param attributes Общие ресурсы по именам
+ */
+	public AJAXContext(String siteRoot, Map<String, String> initParameters, Map<String, Object> attributes) {
+		this.siteRoot = siteRoot;
+		this.initParameters = Collections.unmodifiableMap(new HashMap<>(initParameters));
+		this.attributes = Collections.unmodifiableMap(new HashMap<>(attributes));
+	}
+/**
+ * Корень приложения в файловой системе (бывший параметр обработчика siteRoot)
+ * @return String путь, либо null, если приложение не развёрнуто в файловой системе
+ */
+	public String getSiteRoot() {
+		return siteRoot;
+	}
+/**
+ * Получение параметра сервлета
+ * @param name Имя параметра
+ * @return String значение, либо null, если параметр не задан
+ */
+	public String getInitParameter(String name) {
+		return initParameters.get(name);
+	}
+/**
+ * Имена всех параметров сервлета
+ * @return Неизменяемое множество имён
+ */
+	public Set<String> getInitParameterNames() {
+		return initParameters.keySet();
+	}
+/**
+ * Получение общего ресурса
+ * @param name Имя ресурса
+ * @return Object ресурс, либо null, если он не зарегистрирован
+ */
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+/**
+ * Получение общего ресурса заданного типа
+ * @param <T> Тип ресурса
+ * @param name Имя ресурса
+ * @param type Класс ресурса
+ * @return Ресурс, либо null, если он не зарегистрирован или имеет другой тип
+ */
+	public <T> T getAttribute(String name, Class<T> type) {
+		final Object value = attributes.get(name);
+		return type.isInstance(value) ? type.cast(value) : null;
+	}
+
+}
@@ -0,0 +1,195 @@
+package ru.proxima.commons.ajax;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Предельный срок исполнения AJAX-запроса: меньшее из времени, заданного обработчиком
+ * ({@link AJAXHandler#getTimeout()}), и времени, переданного клиентом в заголовке
+ * {@value #HEADER} (в миллисекундах); заголовок учитывается, только если обработчик задал время.
+ * По истечении срока сервлет сам отвечает клиенту,
+ * а обработчику сигнализирует отмену: {@link #isCancelled()} становится истинным, исполняются
+ * действия, зарегистрированные {@link #onCancel(Runnable)} (например, Statement::cancel),
+ * а поток обработчика, исполняемого вне потоков контейнера, прерывается.
+ * Обработчики получают срок через {@link AJAXRequest#getDeadline()}, либо,
+ * если запрос им не передаётся, через {@link #current()}
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class AJAXDeadline {
+/**
+ * Заголовок запроса, в котором клиент передаёт оставшееся у него время ожидания в миллисекундах
+ */
+	public static final String HEADER = "X-Request-Timeout";
+/**
+ * Атрибут запроса, в котором сервлет хранит срок запроса
+ */
+	public static final String ATTRIBUTE = AJAXDeadline.class.getName();
+/**
+ * Срок запроса без ограничения времени
+ */
+	public static final AJAXDeadline NONE = new AJAXDeadline();
+
+	private static final Logger logger = LoggerFactory.getLogger(AJAXDeadline.class);
+	private static final ThreadLocal<AJAXDeadline> current = new ThreadLocal<>();
+
+	private final long deadline;
+	private final boolean bounded;
+	private volatile boolean cancelled;
+	private List<Runnable> callbacks;
+	private Thread worker;
+
+	private AJAXDeadline() {
+		this.deadline = 0;
+		this.bounded = false;
+	}
+/**
+ * Конструктор срока, отсчитываемого от текущего момента
+ * @param timeoutMillis Допустимое время исполнения в миллисекундах, больше 0
+ */
+	public AJAXDeadline(long timeoutMillis) {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("Время исполнения должно быть положительным: " + timeoutMillis);
+		}
+		this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.bounded = true;
+	}
+/**
+ * Срок запроса, исполняемого в текущем потоке
+ * @return Срок запроса, либо {@link #NONE}, если поток не исполняет AJAX-запрос со сроком
+ */
+	public static AJAXDeadline current() {
+		final AJAXDeadline result = current.get();
+		return null == result ? NONE : result;
+	}
+/**
+ * Привязка срока к текущему потоку на время исполнения обработчика (используется сервлетом)
+ * @param deadline Срок запроса, либо null для отвязки
+ * @return Ранее привязанный срок, либо null
+ */
+	public static AJAXDeadline bind(AJAXDeadline deadline) {
+		final AJAXDeadline previous = current.get();
+		if (null == deadline) {
+			current.remove();
+		} else {
+			current.set(deadline);
+		}
+		return previous;
+	}
+/**
+ * Ограничено ли время исполнения запроса
+ * @return true, если срок задан
+ */
+	public boolean isBounded() {
+		return bounded;
+	}
+/**
+ * Оставшееся до истечения срока время
+ * @return Время в миллисекундах (0, если срок истёк), либо Long.MAX_VALUE, если срок не задан
+ */
+	public long getRemainingMillis() {
+		if (!bounded) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
+/**
+ * Оставшееся время в целых секундах для Statement.setQueryTimeout: округляется вверх
+ * и не бывает меньше 1, т.к. 0 для JDBC означает отсутствие ограничения
+ * @return Время в секундах, либо 0, если срок не задан
+ */
+	public int getQueryTimeoutSeconds() {
+		if (!bounded) {
+			return 0;
+		}
+		return (int)Math.min(Integer.MAX_VALUE, Math.max(1, (getRemainingMillis() + 999) / 1000));
+	}
+/**
+ * Истёк ли срок запроса
+ * @return true, если срок задан и истёк
+ */
+	public boolean isExpired() {
+		return bounded && deadline - System.nanoTime() <= 0;
+	}
+/**
+ * Отменено ли исполнение запроса (срок истёк и клиенту уже отправлен ответ)
+ * @return true, если продолжать исполнение бессмысленно
+ */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+/**
+ * Проверка срока для длительных обработчиков между этапами работы
+ * @throws AJAXExecuteException Срок истёк, либо исполнение отменено
+ */
+	public void check() throws AJAXExecuteException {
+		if (cancelled || isExpired()) {
+			throw new AJAXExecuteException("Request deadline exceeded");
+		}
+	}
+/**
+ * Регистрация действия, исполняемого при отмене. Если исполнение уже отменено,
+ * действие исполняется сразу; для запроса без срока действие не запоминается
+ * @param callback Действие отмены (например, statement::cancel)
+ */
+	public void onCancel(Runnable callback) {
+		if (!bounded) {
+			return;
+		}
+		synchronized (this) {
+			if (!cancelled) {
+				if (null == callbacks) {
+					callbacks = new ArrayList<>(2);
+				}
+				callbacks.add(callback);
+				return;
+			}
+		}
+		run(callback);
+	}
+/**
+ * Отмена исполнения по истечении срока (используется сервлетом): исполняет действия отмены
+ * и прерывает поток обработчика, если он исполняется вне потоков контейнера
+ */
+	public void cancel() {
+		final List<Runnable> pending;
+		synchronized (this) {
+			if (cancelled || !bounded) {
+				return;
+			}
+			cancelled = true;
+			pending = callbacks;
+			callbacks = null;
+			if (null != worker) {
+				worker.interrupt();
+			}
+		}
+		if (null != pending) {
+			pending.forEach(AJAXDeadline::run);
+		}
+	}
+/**
+ * Назначение потока, прерываемого при отмене (используется сервлетом только для потоков,
+ * не принадлежащих контейнеру). Снятие назначения сбрасывает признак прерывания потока,
+ * чтобы отмена не затронула следующую задачу того же потока
+ * @param thread Поток обработчика, либо null для снятия назначения
+ */
+	public void setWorker(Thread thread) {
+		synchronized (this) {
+			worker = thread;
+		}
+		if (null == thread) {
+			Thread.interrupted();
+		}
+	}
+
+	private static void run(Runnable callback) {
+		try {
+			callback.run();
+		} catch (RuntimeException ex) {
+			logger.warn("Ошибка действия отмены AJAX-запроса", ex);
+		}
+	}
+
+}
@@ -0,0 +1,255 @@
+package ru.proxima.commons.ajax;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Отправка событий Server-Sent Events (text/event-stream) обработчиком типа EVENT_STREAM.
+ * Каждое событие отправляется клиенту сразу (с принудительным сбросом буфера), поэтому клиент
+ * видит прогресс и первые результаты, не дожидаясь окончания работы. Методы можно вызывать
+ * из любого потока; поток событий закрывается методами complete, по истечении срока запроса,
+ * либо при отключении клиента, которое обнаруживается при очередной записи (в том числе
+ * при отправке сервлетом пустых событий-пульсов в простое)
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class AJAXEventEmitter {
+/**
+ * Имя события прогресса
+ */
+	public static final String PROGRESS = "progress";
+/**
+ * Имя события частичного результата
+ */
+	public static final String PARTIAL = "partial";
+/**
+ * Имя события итогового результата
+ */
+	public static final String RESULT = "result";
+/**
+ * Имя события ошибки
+ */
+	public static final String ERROR = "error";
+
+	private static final Logger logger = LoggerFactory.getLogger(AJAXEventEmitter.class);
+	private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private final AsyncContext async;
+	private final OutputStream out;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private List<Runnable> callbacks = new ArrayList<>(2);
+	private volatile boolean closed;
+	private long lastWrite = System.nanoTime();
+/**
+ * Конструктор (используется сервлетом): заголовки ответа должны быть уже установлены
+ * @param async Асинхронный контекст запроса
+ * @throws IOException Не удалось получить выходной поток ответа
+ */
+	public AJAXEventEmitter(AsyncContext async) throws IOException {
+		this.async = async;
+		this.out = async.getResponse().getOutputStream();
+		async.addListener(new AsyncListener() {
+			@Override public void onTimeout(AsyncEvent event) {
+				completeWithError("Request timed out");
+			}
+			@Override public void onError(AsyncEvent event) {
+				close();
+			}
+			@Override public void onComplete(AsyncEvent event) {
+				close();
+			}
+			@Override public void onStartAsync(AsyncEvent event) {}
+		});
+	}
+/**
+ * Отправка безымянного события (на клиенте - EventSource.onmessage)
+ * @param data Данные события: JSONObject, JSONArray, либо иной объект, печатаемый как строка
+ * @throws IOException Поток событий закрыт, либо клиент отключился
+ */
+	public void send(Object data) throws IOException {
+		send(null, data);
+	}
+/**
+ * Отправка именованного события
+ * @param event Имя события, либо null для безымянного события
+ * @param data Данные события: JSONObject, JSONArray, либо иной объект, печатаемый как строка
+ * @throws IOException Поток событий закрыт, либо клиент отключился
+ */
+	public void send(String event, Object data) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		if (null != event) {
+			sb.append("event: ").append(event).append('\n');
+		}
+		for (String line : String.valueOf(data).split("\r\n|\r|\n", -1)) {
+			sb.append("data: ").append(line).append('\n');
+		}
+		write(sb.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+	}
+/**
+ * Отправка события прогресса {"done": done, "total": total}
+ * @param done Выполненный объём работы
+ * @param total Полный объём работы, либо -1, если он неизвестен
+ * @throws IOException Поток событий закрыт, либо клиент отключился
+ */
+	public void progress(long done, long total) throws IOException {
+		send(PROGRESS, new JSONObject().put("done", done).put("total", total));
+	}
+/**
+ * Отправка события частичного результата (например, очередной порции строк отчёта)
+ * @param data Данные частичного результата
+ * @throws IOException Поток событий закрыт, либо клиент отключился
+ */
+	public void partial(Object data) throws IOException {
+		send(PARTIAL, data);
+	}
+/**
+ * Время, через которое клиенту следует переподключиться при обрыве соединения
+ * @param millis Время в миллисекундах
+ * @throws IOException Поток событий закрыт, либо клиент отключился
+ */
+	public void setRetry(long millis) throws IOException {
+		write(("retry: " + millis + "\n\n").getBytes(StandardCharsets.UTF_8));
+	}
+/**
+ * Отправка итогового результата и закрытие потока событий
+ * @param result Итоговый результат
+ * @throws IOException Поток событий закрыт, либо клиент отключился
+ */
+	public void complete(Object result) throws IOException {
+		try {
+			send(RESULT, result);
+		} finally {
+			complete();
+		}
+	}
+/**
+ * Закрытие потока событий. Повторный вызов ничего не делает
+ */
+	public void complete() {
+		if (close()) {
+			try {
+				async.complete();
+			} catch (IllegalStateException ex) {
+				logger.debug("Асинхронный контекст потока событий уже завершён", ex);
+			}
+		}
+	}
+/**
+ * Отправка события ошибки в стандартном формате ({@link CommonAJAXHandler#getErrorJSON(String)})
+ * и закрытие потока событий. Ошибка отправки не передаётся, т.к. поток всё равно закрывается
+ * @param message Сообщение об ошибке
+ */
+	public void completeWithError(String message) {
+		try {
+			send(ERROR, CommonAJAXHandler.getErrorJSON(message));
+		} catch (IOException ex) {
+			logger.debug("Не удалось отправить событие ошибки", ex);
+		} finally {
+			complete();
+		}
+	}
+/**
+ * Закрыт ли поток событий (завершён, либо клиент отключился)
+ * @return true, если отправка событий уже невозможна
+ */
+	public boolean isClosed() {
+		return closed;
+	}
+/**
+ * Регистрация действия, исполняемого при закрытии потока событий по любой причине,
+ * например, для остановки работы после отключения клиента. Если поток уже закрыт,
+ * действие исполняется сразу
+ * @param callback Действие при закрытии
+ */
+	public void onClose(Runnable callback) {
+		synchronized (this) {
+			if (!closed) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		run(callback);
+	}
+/**
+ * Отправка пустого события-пульса, если поток простаивает (используется сервлетом).
+ * Пульс не даёт промежуточным узлам закрыть соединение по неактивности и обнаруживает
+ * отключение клиента. Пульс не ждёт освобождения потока: если в него идёт запись
+ * (в том числе зависшая на медленном клиенте), пульс пропускается, т.к. поток не простаивает
+ * @param idleMillis Время простоя, после которого отправляется пульс
+ */
+	public void heartbeat(long idleMillis) {
+		if (closed || !writeLock.tryLock()) {
+			return;
+		}
+		if (System.nanoTime() - lastWrite < TimeUnit.MILLISECONDS.toNanos(idleMillis)) {
+			writeLock.unlock();
+			return;
+		}
+		try {
+			transmit(HEARTBEAT);
+		} catch (IOException ex) {
+			logger.debug("Клиент потока событий отключился", ex);
+		}
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		writeLock.lock();
+		transmit(bytes);
+	}
+/**
+ * Запись при захваченной блокировке записи. Блокировка снимается до закрытия потока
+ * при ошибке, чтобы действия при закрытии не исполнялись под ней
+ */
+	private void transmit(byte[] bytes) throws IOException {
+		try {
+			try {
+				if (closed) {
+					throw new IOException("Поток событий закрыт");
+				}
+				out.write(bytes);
+				out.flush();
+				lastWrite = System.nanoTime();
+			} finally {
+				writeLock.unlock();
+			}
+		} catch (IOException ex) {
+			complete();
+			throw ex;
+		}
+	}
+/**
+ * Отметка о закрытии и исполнение действий при закрытии
+ * @return false, если поток уже был закрыт ранее
+ */
+	private boolean close() {
+		final List<Runnable> pending;
+		synchronized (this) {
+			if (closed) {
+				return false;
+			}
+			closed = true;
+			pending = callbacks;
+			callbacks = null;
+		}
+		pending.forEach(AJAXEventEmitter::run);
+		return true;
+	}
+
+	private static void run(Runnable callback) {
+		try {
+			callback.run();
+		} catch (RuntimeException ex) {
+			logger.warn("Ошибка действия при закрытии потока событий", ex);
+		}
+	}
+
+}
@@ -6,7 +6,7 @@ import org.slf4j.Logger;
  * User response produce exception exception
  * @author Шомин Владимир, ЗАО ИВЦ Инсофт
  */
-public final class AJAXExecuteException extends Exception {
+public class AJAXExecuteException extends Exception {
 /**
  * Default constructor, resets exception cause stack
  */
@@ -42,7 +42,9 @@ public final class AJAXExecuteException extends Exception {
  * @param logger Logger to log cause at debug level
  */
 	public AJAXExecuteException(Throwable cause, Logger logger) {
-		logger.debug(cause.getLocalizedMessage(), cause);
+		if (logger.isDebugEnabled()) {
+			logger.debug(cause.getLocalizedMessage(), cause);
+		}
 		initCause(null);
 	}
 /**
@@ -54,8 +56,18 @@ public final class AJAXExecuteException extends Exception {
  */
 	public AJAXExecuteException(String msg, Throwable cause, Logger logger) {
 		super(msg);
-		logger.debug(msg, cause);
+		if (logger.isDebugEnabled()) {
+			logger.debug(msg, cause);
+		}
 		initCause(null);
 	}
+/**
+ * Constructor for subclasses that may skip stack trace capture
+ * @param msg Exception message
+ * @param writableStackTrace Whether the stack trace should be filled in
+ */
+	protected AJAXExecuteException(String msg, boolean writableStackTrace) {
+		super(msg, null, false, writableStackTrace);
+	}
 
 }
@@ -1,9 +1,14 @@
 package ru.proxima.commons.ajax;
 
 import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
 import ru.proxima.commons.json.JSONObject;
 /**
- * Интерфейс классов-обработчиков AJAX-запросов
+ * Интерфейс классов-обработчиков AJAX-запросов. Методы, добавленные после первой версии интерфейса,
+ * реализованы по умолчанию с теми же значениями, что и в {@link CommonAJAXHandler}, поэтому
+ * обработчики, реализующие интерфейс напрямую, собираются без изменений
  * @author Шомин Владимир, ЗАО ИВЦ Инсофт
  */
 public interface AJAXHandler {
@@ -40,13 +45,40 @@ public interface AJAXHandler {
  * Обработка AJAX-запроса на высшем уровне абстракции - ответ возвращается как {@link Object}
  * (чаще всего JSONObject), параметры передаются как JSONObject
  */
-		JSON_IN_OUT
+		JSON_IN_OUT,
+/**
+ * Асинхронная обработка AJAX-запроса - ответ возвращается как {@link CompletionStage}
+ * (чаще всего с JSONObject), параметры передаются как JSONObject. Поток контейнера
+ * освобождается до получения результата
+ */
+		JSON_ASYNC,
+/**
+ * Обработка AJAX-запроса с потоковой записью JSON-ответа через {@link JSONStreamWriter}
+ * прямо в выходной поток, параметры передаются как JSONObject
+ */
+		JSON_STREAM,
+/**
+ * Обработка AJAX-запроса с отправкой ответа событиями Server-Sent Events (text/event-stream)
+ * через {@link AJAXEventEmitter}, параметры передаются как JSONObject. Поток контейнера
+ * освобождается, события отправляются по мере готовности, в простое сервлет отправляет пульсы
+ */
+		EVENT_STREAM
 	}
+/**
+ * Однократная инициализация обработчика при его загрузке, до исполнения первого запроса.
+ * Здесь следует готовить дорогие ресурсы, а не создавать их по требованию в process
+ * @param context Неизменяемый контекст: корень приложения, параметры сервлета, общие ресурсы
+ * @throws AJAXExecuteException Обработчик не может работать, он не будет зарегистрирован
+ */
+	default void init(AJAXContext context) throws AJAXExecuteException {}
 /**
  * Установка различных параметров обработчика
  * @param name Имя параметра
  * @param value Значение параметра
+ * @deprecated Сервлет больше не передаёт параметры при каждом запросе,
+ * используйте {@link #init(AJAXContext)}
  */
+	@Deprecated
 	void setParam(String name, String value);
 /**
  * Получение типа обработчика, что определит который метод будет вызван для исполнения запроса.
@@ -78,6 +110,105 @@ public interface AJAXHandler {
  * @return Домены для установки заголовка Access-Control-Allow-Origin
  */
 	String getCrossDomains();
+/**
+ * Возвращает максимальное число одновременных исполнений обработчика вне потоков контейнера
+ * (в виртуальных потоках, если они доступны). Блокирующие обработчики при этом не занимают
+ * потоки контейнера, а ответ завершается асинхронно. Для исполнения в потоке контейнера - возвращайте 0
+ * @return Ограничение параллельности вынесенного исполнения, либо 0
+ */
+	default int getOffloadConcurrency() {
+		return 0;
+	}
+/**
+ * Возвращает допустимое время исполнения обработчика. По его истечении (либо раньше, если клиент
+ * передал меньшее время в заголовке X-Request-Timeout) клиенту отправляется сообщение об ошибке,
+ * а обработчику сигнализируется отмена через {@link AJAXDeadline}. Обработчик со сроком исполняется
+ * вне потоков контейнера. Для исполнения без ограничения времени - возвращайте 0: тогда заголовок
+ * X-Request-Timeout игнорируется
+ * @return Допустимое время исполнения в миллисекундах, либо 0
+ */
+	default long getTimeout() {
+		return 0;
+	}
+/**
+ * Возвращает допустимый размер всего multipart-запроса для {@link AJAXRequest#getMultipart()}
+ * и {@link AJAXRequest#parseMultipartRequest()}. Для снятия ограничения - возвращайте -1
+ * @return Допустимый размер в байтах, либо -1
+ */
+	default long getMaxUploadSize() {
+		return -1;
+	}
+/**
+ * Возвращает допустимый размер одной части (файла) multipart-запроса.
+ * Для снятия ограничения - возвращайте -1
+ * @return Допустимый размер в байтах, либо -1
+ */
+	default long getMaxUploadPartSize() {
+		return -1;
+	}
+/**
+ * Возвращает время жизни кэшированного ответа обработчика типа JSON_IN_OUT. Кэшировать можно только
+ * идемпотентные обработчики, ответ которых зависит лишь от параметров (см. {@link #getIgnoredParams()}).
+ * Для отключения кэширования - возвращайте 0
+ * @return Время жизни ответа в кэше в миллисекундах, либо 0
+ */
+	default long getCacheTTL() {
+		return 0;
+	}
+/**
+ * Возвращает время сверх {@link #getCacheTTL()}, в течение которого устаревший ответ ещё отдаётся
+ * клиентам, пока единственное фоновое исполнение обработчика получает новый. Для немедленного
+ * пересчёта по истечении времени жизни - возвращайте 0
+ * @return Дополнительное время жизни устаревшего ответа в миллисекундах, либо 0
+ */
+	default long getCacheStaleTTL() {
+		return 0;
+	}
+/**
+ * Возвращает значение заголовка Cache-Control для GET-запросов к обработчикам типов
+ * JSON_OUTPUT и JSON_IN_OUT. Чтобы не устанавливать заголовок - возвращайте null
+ * @return Политика кэширования ответа клиентом и промежуточными серверами, либо null
+ */
+	default String getCacheControl() {
+		return null;
+	}
+/**
+ * Возвращает версию данных, которые вернёт обработчик типа JSON_OUTPUT или JSON_IN_OUT на данный
+ * GET-запрос. Версия используется как ETag, и если она совпадает с If-None-Match клиента, то
+ * обработчик не вызывается вовсе. Если версия неизвестна - возвращайте null, тогда ETag будет
+ * вычислен по содержимому ответа
+ * @param request Класс-обёртка HttpServletRequest
+ * @param params JSONObject с входными параметрами обработчика, либо null
+ * @return Версия данных, либо null
+ */
+	default String getVersion(AJAXRequest request, JSONObject params) {
+		return null;
+	}
+/**
+ * Разрешено ли сжимать ответ обработчика типов TEXT, JSON_INPUT, JSON_OUTPUT и JSON_IN_OUT
+ * (gzip/deflate по заголовку Accept-Encoding клиента). Для уже сжатых данных - возвращайте false
+ * @return true, если ответ можно сжимать
+ */
+	default boolean isCompressible() {
+		return true;
+	}
+/**
+ * Объединять ли одновременные вызовы обработчика типа JSON_IN_OUT с одинаковыми параметрами:
+ * пока исполняется первый из них, остальные ожидают и получают его же ответ, либо его же ошибку.
+ * Допустимо только для идемпотентных обработчиков, ответ которых зависит лишь от параметров
+ * @return true, если одновременные одинаковые вызовы объединяются
+ */
+	default boolean isCoalesced() {
+		return false;
+	}
+/**
+ * Возвращает имена параметров верхнего уровня, не влияющих на ответ обработчика (например,
+ * добавляемый сервлетом remoteAddr). Они не входят в ключ кэша ответов и объединения вызовов
+ * @return Имена параметров, не входящих в ключ
+ */
+	default Set<String> getIgnoredParams() {
+		return Collections.singleton("remoteAddr");
+	}
 /**
  * Обработка AJAX-запроса на самом низком уровне - используя обёртки классов
  * HttpServletRequest и HttpServletResponse
@@ -126,6 +257,38 @@ public interface AJAXHandler {
  * @throws AJAXExecuteException Работа AJAX-обработчика завершилась со сбоем
  */
 	Object process(JSONObject params) throws AJAXExecuteException;
+/**
+ * Асинхронная обработка AJAX-запроса - ответ возвращается как {@link CompletionStage}
+ * (чаще всего с JSONObject), параметры передаются как JSONObject. Ответ будет напечатан
+ * после завершения CompletionStage, поток контейнера при этом не ожидает результата
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @return CompletionStage Отложенный результат, печатаемый в выходной поток ответа
+ * @throws AJAXExecuteException Работа AJAX-обработчика завершилась со сбоем
+ */
+	default CompletionStage<Object> processAsync(JSONObject params) throws AJAXExecuteException {
+		throw new UnsupportedOperationException("Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса с потоковой записью JSON-ответа, параметры передаются как JSONObject.
+ * Ответ не накапливается в памяти целиком, а печатается в кодировке UTF-8 по мере формирования
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param out Потоковая запись JSON-ответа
+ * @throws AJAXExecuteException Работа AJAX-обработчика завершилась со сбоем
+ */
+	default void process(JSONObject params, JSONStreamWriter out) throws AJAXExecuteException {
+		throw new UnsupportedOperationException("Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса с отправкой событий Server-Sent Events, параметры передаются как JSONObject.
+ * Метод может вернуть управление до окончания работы: поток событий остаётся открытым,
+ * пока обработчик не вызовет один из методов complete, либо пока не отключится клиент
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param events Отправка событий клиенту
+ * @throws AJAXExecuteException Работа AJAX-обработчика завершилась со сбоем
+ */
+	default void process(JSONObject params, AJAXEventEmitter events) throws AJAXExecuteException {
+		throw new UnsupportedOperationException("Данный обработчик не может работать с таким типом запроса");
+	}
 /**
  * Вызывается при выгрузке сервлета из памяти, позволяет выполнить какие-либо действия по освобождению ресурсов
  */
@@ -0,0 +1,64 @@
+package ru.proxima.commons.ajax;
+
+import java.util.List;
+import java.util.function.Supplier;
+/**
+ * Индекс AJAX-обработчиков модуля, формируемый при сборке процессором аннотаций
+ * {@code ru.proxima.commons.ajax.processor.AJAXHandlerProcessor} и регистрируемый в
+ * META-INF/services. Сервлет строит по нему реестр без рефлексии и чтения META-INF/AJAX.properties.
+ * Ссылки на конструкторы загружают классы обработчиков при загрузке индекса, но не инициализируют их:
+ * конструктор и статическая инициализация класса исполняются при первом обращении к обработчику
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public interface AJAXHandlerIndex {
+/**
+ * Описание обработчика в индексе
+ */
+	final class Handler {
+
+		private final String module;
+		private final String action;
+		private final String className;
+		private final Supplier<? extends CommonAJAXHandler> factory;
+/**
+ * Конструктор, вызываемый сгенерированным кодом
+ * @param module Имя модуля
+ * @param action Имя действия
+ * @param className Имя класса обработчика
+ * @param factory Создание обработчика (ссылка на конструктор)
+ */
+		public Handler(String module, String action, String className,
+				Supplier<? extends CommonAJAXHandler> factory) {
+			this.module = module;
+			this.action = action;
+			this.className = className;
+			this.factory = factory;
+		}
+
+		public String getModule() {
+			return module;
+		}
+
+		public String getAction() {
+			return action;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+/**
+ * Создание нового экземпляра обработчика
+ * @return CommonAJAXHandler обработчик
+ */
+		public CommonAJAXHandler create() {
+			return factory.get();
+		}
+
+	}
+/**
+ * Получение всех обработчиков модуля
+ * @return Неизменяемый список описаний обработчиков
+ */
+	List<Handler> getHandlers();
+
+}
@@ -0,0 +1,144 @@
+package ru.proxima.commons.ajax;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.util.Streams;
+/**
+ * Потоковый перебор частей multipart-запроса в порядке их следования в теле запроса:
+ * части не сохраняются во временные файлы и не накапливаются в памяти, обработчик получает
+ * каждую часть сразу по её поступлении. Содержимое части доступно только до перехода
+ * к следующей части. Превышение допустимых размеров (см. {@link AJAXHandler#getMaxUploadSize()})
+ * обнаруживается при чтении и завершается исключением
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class AJAXMultipart {
+/**
+ * Размер буфера переноса части в файл
+ */
+	private static final int TRANSFER_BUFFER = 64 * 1024;
+
+	private final FileItemIterator iterator;
+/**
+ * Часть multipart-запроса: поле формы, либо файл
+ */
+	public static final class Part {
+
+		private final FileItemStream item;
+
+		private Part(FileItemStream item) {
+			this.item = item;
+		}
+/**
+ * Имя поля формы
+ * @return Имя поля
+ */
+		public String getFieldName() {
+			return item.getFieldName();
+		}
+/**
+ * Имя файла, переданное клиентом
+ * @return Имя файла, либо null для поля формы
+ */
+		public String getFileName() {
+			return item.getName();
+		}
+/**
+ * Тип содержимого части, переданный клиентом
+ * @return Тип содержимого, либо null
+ */
+		public String getContentType() {
+			return item.getContentType();
+		}
+/**
+ * Является ли часть обычным полем формы
+ * @return true для поля формы, false для файла
+ */
+		public boolean isFormField() {
+			return item.isFormField();
+		}
+/**
+ * Открывает содержимое части для чтения. Поток может быть открыт только один раз
+ * @return Поток байт содержимого части
+ * @throws IOException Обнаружена ошибка ввода-вывода, либо превышен допустимый размер
+ */
+		public InputStream openStream() throws IOException {
+			return item.openStream();
+		}
+/**
+ * Чтение содержимого поля формы как строки UTF-8
+ * @return Значение поля
+ * @throws IOException Обнаружена ошибка ввода-вывода, либо превышен допустимый размер
+ */
+		public String getString() throws IOException {
+			return Streams.asString(item.openStream(), StandardCharsets.UTF_8.name());
+		}
+/**
+ * Перенос содержимого части в файл без промежуточного временного файла.
+ * Существующий файл перезаписывается
+ * @param target Путь к файлу
+ * @return Число записанных байт
+ * @throws IOException Обнаружена ошибка ввода-вывода, либо превышен допустимый размер
+ */
+		public long transferTo(Path target) throws IOException {
+			try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				return transferTo(channel);
+			}
+		}
+/**
+ * Перенос содержимого части в открытый файловый канал с его текущей позиции.
+ * Канал не закрывается
+ * @param channel Файловый канал, открытый на запись
+ * @return Число записанных байт
+ * @throws IOException Обнаружена ошибка ввода-вывода, либо превышен допустимый размер
+ */
+		public long transferTo(FileChannel channel) throws IOException {
+			final byte[] buffer = new byte[TRANSFER_BUFFER];
+			final ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+			long total = 0;
+			try (InputStream in = item.openStream()) {
+				for (int read; (read = in.read(buffer)) >= 0;) {
+					wrapper.clear().limit(read);
+					while (wrapper.hasRemaining()) {
+						channel.write(wrapper);
+					}
+					total += read;
+				}
+			}
+			return total;
+		}
+
+	}
+
+	AJAXMultipart(FileItemIterator iterator) {
+		this.iterator = iterator;
+	}
+/**
+ * Есть ли в запросе следующая часть. Непрочитанное содержимое текущей части пропускается
+ * @return true, если следующая часть есть
+ * @throws FileUploadException Тело запроса не удалось разобрать, либо превышен допустимый размер
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ */
+	public boolean hasNext() throws FileUploadException, IOException {
+		return iterator.hasNext();
+	}
+/**
+ * Переход к следующей части
+ * @return Следующая часть запроса
+ * @throws FileUploadException Тело запроса не удалось разобрать, либо превышен допустимый размер
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ * @throws java.util.NoSuchElementException Частей больше нет
+ */
+	public Part next() throws FileUploadException, IOException {
+		return new Part(iterator.next());
+	}
+
+}
@@ -1,5 +1,7 @@
 package ru.proxima.commons.ajax;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
@@ -15,13 +17,30 @@ import org.apache.commons.fileupload.servlet.ServletFileUpload;
 public final class AJAXRequest {
 
 	private final HttpServletRequest request;
+	private final long maxUploadSize;
+	private final long maxUploadPartSize;
 /**
- * Единственный доступный конструктор. Параметром является объект класса
+ * Конструктор без ограничения размера multipart-запроса. Параметром является объект класса
  * HttpServletRequest для оборачивания
  * @param request HttpServletRequest
  */
 	public AJAXRequest(HttpServletRequest request) {
+		this(request, -1, -1);
+	}
+/**
+ * Конструктор с ограничениями размера multipart-запроса, заданными обработчиком
+ * @param request HttpServletRequest
+ * @param handler Обработчик запроса ({@link AJAXHandler#getMaxUploadSize()},
+ * {@link AJAXHandler#getMaxUploadPartSize()})
+ */
+	public AJAXRequest(HttpServletRequest request, AJAXHandler handler) {
+		this(request, handler.getMaxUploadSize(), handler.getMaxUploadPartSize());
+	}
+
+	private AJAXRequest(HttpServletRequest request, long maxUploadSize, long maxUploadPartSize) {
 		this.request = request;
+		this.maxUploadSize = maxUploadSize;
+		this.maxUploadPartSize = maxUploadPartSize;
 	}
 /**
  * Оборачивает метод String getParameter(String name)
@@ -62,12 +81,40 @@ public final class AJAXRequest {
 		return request.getParameterNames();
 	}
 /**
- * Парсит запрос для использования возможностей библиотеки apache commons fileupload
+ * Возвращает срок исполнения запроса, например, для Statement.setQueryTimeout:
+ * {@code statement.setQueryTimeout(request.getDeadline().getQueryTimeoutSeconds())}
+ * @return Срок запроса, либо {@link AJAXDeadline#NONE}, если время исполнения не ограничено
+ */
+	public AJAXDeadline getDeadline() {
+		final Object deadline = request.getAttribute(AJAXDeadline.ATTRIBUTE);
+		return deadline instanceof AJAXDeadline ? (AJAXDeadline)deadline : AJAXDeadline.NONE;
+	}
+/**
+ * Парсит запрос для использования возможностей библиотеки apache commons fileupload.
+ * Все элементы запроса сохраняются (крупные - во временные файлы) до возврата из метода;
+ * для больших файлов предпочтителен {@link #getMultipart()}
  * @return List&lt;FileItem&gt; Список элементов запроса (файлы, параметры)
  * @throws FileUploadException Не удалось разобрать запрос на элементы
  */
 	public List<FileItem> parseMultipartRequest() throws FileUploadException {
-		return new ServletFileUpload(new DiskFileItemFactory()).parseRequest(request);
+		return configure(new ServletFileUpload(new DiskFileItemFactory())).parseRequest(request);
+	}
+/**
+ * Потоковый перебор частей multipart-запроса без сохранения во временные файлы:
+ * {@code while (parts.hasNext()) { AJAXMultipart.Part part = parts.next(); ... part.transferTo(path); }}
+ * @return Перебор частей запроса
+ * @throws FileUploadException Запрос не является multipart-запросом, либо превышен допустимый размер
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ */
+	public AJAXMultipart getMultipart() throws FileUploadException, IOException {
+		return new AJAXMultipart(configure(new ServletFileUpload()).getItemIterator(request));
+	}
+
+	private ServletFileUpload configure(ServletFileUpload upload) {
+		upload.setHeaderEncoding(StandardCharsets.UTF_8.name());
+		upload.setSizeMax(maxUploadSize);
+		upload.setFileSizeMax(maxUploadPartSize);
+		return upload;
 	}
 /**
  * Если вышеуказанных методов не хватает :)
@@ -3,6 +3,7 @@ package ru.proxima.commons.ajax;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import javax.servlet.http.HttpServletResponse;
 /**
  * Класс-обертка для HttpServletResponse (чтобы сторонним разработчикам было достаточно
@@ -42,6 +43,37 @@ public final class AJAXResponse {
 	public OutputStream getOutputStream() throws IOException {
 		return response.getOutputStream();
 	}
+/**
+ * Поток байт ответа, сжимаемый gzip или deflate, если клиент это поддерживает (заголовок
+ * Accept-Encoding). Устанавливает заголовки Content-Encoding и Vary. Поток следует закрыть
+ * по окончании записи, чтобы завершить сжатие
+ * @param request Класс-обёртка запроса, на который формируется ответ
+ * @return OutputStream сжимающий поток байт ответа, либо исходный поток, если сжатие не поддерживается
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ */
+	public OutputStream getCompressedOutputStream(AJAXRequest request) throws IOException {
+		final String encoding = ResponseCompression.negotiate(request.bare().getHeader("Accept-Encoding"));
+		response.addHeader("Vary", "Accept-Encoding");
+		if (null == encoding) {
+			return response.getOutputStream();
+		}
+		response.setHeader("Content-Encoding", encoding);
+		return ResponseCompression.wrap(response.getOutputStream(), encoding);
+	}
+/**
+ * Отправка файла в ответ. Устанавливаются Content-Length, Last-Modified, ETag и Accept-Ranges,
+ * поддерживаются условные запросы (304) и докачка по заголовкам Range/If-Range (206, в том числе
+ * multipart/byteranges для нескольких диапазонов). Файл не буферизуется в памяти целиком:
+ * его отправляет контейнер (sendfile), либо {@link java.nio.channels.FileChannel#transferTo}
+ * через буфер ограниченного размера
+ * @param request Класс-обёртка запроса, на который формируется ответ
+ * @param file Путь к файлу
+ * @param contentType MIME-тип содержимого файла
+ * @throws IOException Файл недоступен, либо обнаружена ошибка ввода-вывода
+ */
+	public void sendFile(AJAXRequest request, Path file, String contentType) throws IOException {
+		FileResponse.send(request.bare(), response, file, contentType);
+	}
 /**
  * Оборачивает метод PrintWriter getWriter()
  * @return PrintWriter печатаемый поток вывода ответа
@@ -0,0 +1,63 @@
+package ru.proxima.commons.ajax;
+
+import javax.servlet.http.HttpServletRequest;
+/**
+ * Концентратор тем для доставки уведомлений клиентам: обработчики и прочий код приложения
+ * публикуют сообщения в темы, а клиенты получают их длинным опросом встроенного обработчика
+ * core.Subscribe вместо частого опроса собственных обработчиков. Концентратор доступен
+ * обработчикам как общий ресурс контекста ({@link AJAXContext#getAttribute(String, Class)}),
+ * прочему коду - как атрибут контекста сервлета, в обоих случаях под именем {@link #ATTRIBUTE}.
+ * Подписка на темы запрещена, пока приложение не установит проверку права подписки
+ * ({@link #setFilter(Filter)}); число подписчиков ограничено параметрами сервлета topicMaxSubscribers
+ * (в целом) и topicMaxSubscribersPerClient (для одного клиента)
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public interface AJAXTopics {
+/**
+ * Имя общего ресурса и атрибута контекста сервлета
+ */
+	String ATTRIBUTE = AJAXTopics.class.getName();
+/**
+ * Проверка права клиента подписаться на тему
+ */
+	@FunctionalInterface
+	interface Filter {
+/**
+ * Допустима ли подписка на тему. Вызывается в потоке запроса core.Subscribe при каждом
+ * изменении набора тем подписчика, поэтому не должна надолго блокироваться
+ * @param request Запрос опроса (сессия, пользователь, заголовки и т.п.)
+ * @param topic Тема
+ * @return true, если клиенту можно получать сообщения темы
+ */
+		boolean isAllowed(HttpServletRequest request, String topic);
+
+	}
+/**
+ * Публикация сообщения всем подписчикам темы. Сообщение не копируется, поэтому после
+ * публикации его нельзя изменять
+ * @param topic Тема
+ * @param message Сообщение: JSONObject, JSONArray, либо иной объект, печатаемый как строка
+ */
+	void publish(String topic, Object message);
+/**
+ * Публикация сообщения с ключом объединения: ещё не доставленное подписчику сообщение
+ * той же темы с тем же ключом заменяется новым (например, последнее состояние объекта
+ * вместо всех промежуточных)
+ * @param topic Тема
+ * @param key Ключ объединения, либо null, если сообщение не объединяется
+ * @param message Сообщение: JSONObject, JSONArray, либо иной объект, печатаемый как строка
+ */
+	void publish(String topic, String key, Object message);
+/**
+ * Число подписчиков темы
+ * @param topic Тема
+ * @return Количество подписчиков
+ */
+	int getSubscriberCount(String topic);
+/**
+ * Установка проверки права подписки, например, при запуске приложения
+ * @param filter Проверка права подписки, либо null, чтобы запретить подписку на все темы
+ */
+	void setFilter(Filter filter);
+
+}
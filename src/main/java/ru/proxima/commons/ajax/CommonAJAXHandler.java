@@ -1,10 +1,16 @@
 package ru.proxima.commons.ajax;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.URL;
-import java.util.HashMap;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.proxima.commons.json.JSONObject;
@@ -14,33 +20,75 @@ import ru.proxima.commons.json.JSONObject;
  */
 public abstract class CommonAJAXHandler implements AJAXHandler {
 
-	private final HashMap<String, String> params;
+	private final Map<String, String> params;
+	private AJAXContext context = AJAXContext.EMPTY;
 
 	public CommonAJAXHandler() {
-		params = new HashMap<>();
+		params = new ConcurrentHashMap<>();
+	}
+/**
+ * Сохраняет контекст и вызывает {@link #init()}. Контекст публикуется вместе с реестром
+ * обработчиков, поэтому виден всем потокам без дополнительной синхронизации
+ * @param context Неизменяемый контекст обработчика
+ * @throws AJAXExecuteException Обработчик не может работать
+ */
+	@Override public final void init(AJAXContext context) throws AJAXExecuteException {
+		this.context = null == context ? AJAXContext.EMPTY : context;
+		init();
+	}
+/**
+ * Инициализация обработчика, переопределяемая при необходимости. Контекст доступен через {@link #getContext()}
+ * @throws AJAXExecuteException Обработчик не может работать
+ */
+	protected void init() throws AJAXExecuteException {}
+/**
+ * Получение контекста, переданного обработчику при загрузке
+ * @return AJAXContext неизменяемый контекст
+ */
+	protected final AJAXContext getContext() {
+		return context;
 	}
 /**
  * Установка различных параметров обработчика
  * @param name Имя параметра
- * @param value Значение параметра
+ * @param value Значение параметра, null удаляет параметр
+ * @deprecated используйте {@link #init()} и {@link #getContext()}
  */
+	@Deprecated
 	@Override public final void setParam(String name, String value) {
-		params.put(name, value);
+		if (null == value) {
+			params.remove(name);
+		} else {
+			params.put(name, value);
+		}
 	}
 /**
- * Получение параметра в обработчике
+ * Получение параметра в обработчике: установленного через setParam, иначе из контекста
+ * (siteRoot - корень приложения, прочие - параметры сервлета)
  * @param name Имя параметра
  * @return String значение
  */
 	protected final String getParam(String name) {
-		return params.get(name);
+		final String value = params.get(name);
+		if (null != value) {
+			return value;
+		}
+		return "siteRoot".equals(name) ? context.getSiteRoot() : context.getInitParameter(name);
 	}
 /**
  * Получение имени обработчика (по сути - имя класса обработчика). Запрещён к переопределению
  * @return String имя обработчика
  */
 	@Override public final String getAction() {
-		return this.getClass().getSimpleName();
+		return getActionName(this.getClass());
+	}
+/**
+ * Получение имени обработчика по его классу, не создавая обработчик
+ * @param cls Класс обработчика
+ * @return String имя обработчика
+ */
+	public static String getActionName(Class<? extends CommonAJAXHandler> cls) {
+		return cls.getSimpleName();
 	}
 /**
  * Получение имени модуля группировки для данного обработчика (берётся из ресурсов).
@@ -48,21 +96,58 @@ public abstract class CommonAJAXHandler implements AJAXHandler {
  * @return String имя модуля обработчика
  */
 	@Override public final String getModule() {
-		String moduleName;
+		return getModuleName(this.getClass());
+	}
+/**
+ * Получение имени модуля обработчика по его классу, не создавая обработчик и не инициализируя класс
+ * @param cls Класс обработчика
+ * @return String имя модуля обработчика
+ */
+	public static String getModuleName(Class<? extends CommonAJAXHandler> cls) {
+		return moduleNames.get(cls);
+	}
+/**
+ * Параметры, по умолчанию не входящие в ключ кэша ответов и объединения вызовов
+ */
+	private static final Set<String> REMOTE_ADDR = Collections.singleton("remoteAddr");
+/**
+ * Имена модулей по источникам классов (jar-архиву или каталогу): файл META-INF/AJAX.properties
+ * читается один раз на источник, а не для каждого обработчика
+ */
+	private static final ConcurrentHashMap<String, String> sourceModules = new ConcurrentHashMap<>();
+/**
+ * Имена модулей по классам обработчиков
+ */
+	private static final ClassValue<String> moduleNames = new ClassValue<String>() {
+		@Override protected String computeValue(Class<?> cls) {
+			final String clsRes = "/" + cls.getName().replace('.', '/') + ".class";
+			final URL clsURL = cls.getResource(clsRes);
+			if (null == clsURL) {
+				return getDefaultModuleName();
+			}
+			final String source = clsURL.toString().replace(clsRes, "");
+			String moduleName = sourceModules.get(source);
+			if (null == moduleName) {
+				moduleName = readModuleName(source + "/META-INF/AJAX.properties");
+				sourceModules.putIfAbsent(source, moduleName);
+			}
+			return moduleName;
+		}
+	};
+
+	private static String readModuleName(String modRes) {
 		try {
-			Properties properties = new Properties();
-			Class cls = this.getClass();
-			String clsRes = "/" + cls.getName().replaceAll("\\.", "/") + ".class";
-			String modRes = cls.getResource(clsRes).toString().replace(
-				clsRes, "/META-INF/AJAX.properties");
-
-			properties.load(new URL(modRes).openStream());
-			moduleName = properties.getProperty("moduleName", getDefaultModuleName());
+			final URLConnection connection = new URL(modRes).openConnection();
+			connection.setUseCaches(false);
+			final Properties properties = new Properties();
+			try (InputStream in = connection.getInputStream()) {
+				properties.load(in);
+			}
+			return properties.getProperty("moduleName", getDefaultModuleName());
 		} catch (IOException ex) {
 			getLogger().debug("Не удалось получить имя AJAX-модуля", ex);
-			moduleName = getDefaultModuleName();
+			return getDefaultModuleName();
 		}
-		return moduleName;
 	}
 /**
  * Возвращает логгер для AJAX событий
@@ -80,6 +165,20 @@ public abstract class CommonAJAXHandler implements AJAXHandler {
 	public static JSONObject getErrorJSON(String message) {
 		return new JSONObject().put("error", new JSONObject().put("message", message));
 	}
+/**
+ * Возвращает стандартный JSONObject с сообщением об ошибке, дополненный кодом ошибки
+ * и признаком допустимости повтора вызова
+ * @param message Сообщение об ошибке
+ * @param code Код ошибки
+ * @param retryable Может ли повтор вызова завершиться успешно
+ * @return JSONObject JSONObject с сообщением об ошибке
+ */
+	public static JSONObject getErrorJSON(String message, String code, boolean retryable) {
+		return new JSONObject().put("error", new JSONObject()
+			.put("message", message)
+			.put("code", code)
+			.put("retryable", retryable));
+	}
 /**
  * Возвращает стандартный JSONObject с сообщением об ошибке
  * и пишет отладочное сообщение в логи с исключением
@@ -117,6 +216,97 @@ public abstract class CommonAJAXHandler implements AJAXHandler {
 	public String getCrossDomains() {
 		return null;
 	}
+/**
+ * По умолчанию обработчик исполняется в потоке контейнера, если его модуль
+ * не перечислен в параметре сервлета offloadModules
+ * @return 0
+ */
+	@Override
+	public int getOffloadConcurrency() {
+		return 0;
+	}
+/**
+ * По умолчанию время исполнения не ограничивается, заголовок X-Request-Timeout клиента игнорируется
+ * @return 0
+ */
+	@Override
+	public long getTimeout() {
+		return 0;
+	}
+/**
+ * По умолчанию размер multipart-запроса не ограничивается
+ * @return -1
+ */
+	@Override
+	public long getMaxUploadSize() {
+		return -1;
+	}
+/**
+ * По умолчанию размер части multipart-запроса не ограничивается
+ * @return -1
+ */
+	@Override
+	public long getMaxUploadPartSize() {
+		return -1;
+	}
+/**
+ * По умолчанию ответы обработчика не кэшируются
+ * @return 0
+ */
+	@Override
+	public long getCacheTTL() {
+		return 0;
+	}
+/**
+ * По умолчанию устаревший ответ не отдаётся
+ * @return 0
+ */
+	@Override
+	public long getCacheStaleTTL() {
+		return 0;
+	}
+/**
+ * По умолчанию заголовок Cache-Control не устанавливается
+ * @return null
+ */
+	@Override
+	public String getCacheControl() {
+		return null;
+	}
+/**
+ * По умолчанию версия данных неизвестна и ETag вычисляется по содержимому ответа
+ * @param request Класс-обёртка HttpServletRequest
+ * @param params JSONObject с входными параметрами обработчика, либо null
+ * @return null
+ */
+	@Override
+	public String getVersion(AJAXRequest request, JSONObject params) {
+		return null;
+	}
+/**
+ * По умолчанию ответ сжимается, если клиент это поддерживает
+ * @return true
+ */
+	@Override
+	public boolean isCompressible() {
+		return true;
+	}
+/**
+ * По умолчанию одновременные вызовы не объединяются
+ * @return false
+ */
+	@Override
+	public boolean isCoalesced() {
+		return false;
+	}
+/**
+ * По умолчанию в ключ не входит только адрес клиента
+ * @return Множество из remoteAddr
+ */
+	@Override
+	public Set<String> getIgnoredParams() {
+		return REMOTE_ADDR;
+	}
 
 	@Override
 	public void process(AJAXRequest request, AJAXResponse response) throws AJAXExecuteException {
@@ -148,4 +338,19 @@ public abstract class CommonAJAXHandler implements AJAXHandler {
 		throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
 	}
 
+	@Override
+	public CompletionStage<Object> processAsync(JSONObject params) throws AJAXExecuteException {
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	@Override
+	public void process(JSONObject params, JSONStreamWriter out) throws AJAXExecuteException {
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	@Override
+	public void process(JSONObject params, AJAXEventEmitter events) throws AJAXExecuteException {
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
 }
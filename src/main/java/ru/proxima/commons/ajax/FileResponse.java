@@ -0,0 +1,241 @@
+package ru.proxima.commons.ajax;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+/**
+ * Отправка файла в ответ с поддержкой условных запросов (If-None-Match, If-Modified-Since)
+ * и запросов диапазонов (Range, If-Range): один диапазон отправляется ответом 206, несколько -
+ * ответом 206 multipart/byteranges. Файл не буферизуется в памяти целиком: если контейнер поддерживает
+ * sendfile (Tomcat), файл отправляет он сам, иначе используется {@link FileChannel#transferTo}
+ * в поток ответа, при котором в куче находится лишь буфер канала ограниченного размера
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class FileResponse {
+/**
+ * Наибольшее число диапазонов в одном запросе; запрос с большим числом диапазонов
+ * получает файл целиком (защита от запросов из множества мелких диапазонов)
+ */
+	private static final int MAX_RANGES = 16;
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	private FileResponse() {}
+/**
+ * Отправка файла
+ * @param request Запрос
+ * @param response Ответ
+ * @param file Путь к файлу
+ * @param contentType MIME-тип содержимого файла
+ * @throws IOException Файл недоступен, либо обнаружена ошибка ввода-вывода
+ */
+	static void send(HttpServletRequest request, HttpServletResponse response, Path file, String contentType)
+			throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		final long length = attributes.size();
+		final long lastModified = attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+		final String etag = '"' + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		if (isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		final String range = request.getHeader("Range");
+		final List<long[]> ranges = null == range || !isRangeCurrent(request, etag, lastModified)
+			? null : parseRanges(range, length);
+		if (null != ranges && ranges.isEmpty()) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+
+		if (null == ranges) {
+			response.setContentType(contentType);
+			response.setContentLengthLong(length);
+			transfer(request, response, file, 0, length);
+		} else if (ranges.size() == 1) {
+			final long[] single = ranges.get(0);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType(contentType);
+			response.setHeader("Content-Range", contentRange(single, length));
+			response.setContentLengthLong(single[1] - single[0] + 1);
+			transfer(request, response, file, single[0], single[1] - single[0] + 1);
+		} else {
+			sendMultipart(response, file, contentType, ranges, length);
+		}
+	}
+/**
+ * Проверка условий If-None-Match и If-Modified-Since (последнее учитывается только
+ * при отсутствии первого, по RFC 7232)
+ */
+	private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		if (null != ifNoneMatch) {
+			for (String candidate : ifNoneMatch.split(",")) {
+				candidate = candidate.trim();
+				if ("*".equals(candidate) || etag.equals(candidate.startsWith("W/") ? candidate.substring(2) : candidate)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		try {
+			final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+/**
+ * Проверка условия If-Range: диапазон отправляется, только если у клиента та же версия файла
+ * (строгое сравнение ETag, либо совпадение даты изменения)
+ */
+	private static boolean isRangeCurrent(HttpServletRequest request, String etag, long lastModified) {
+		final String ifRange = request.getHeader("If-Range");
+		if (null == ifRange) {
+			return true;
+		} else if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return etag.equals(ifRange.trim());
+		}
+		try {
+			return request.getDateHeader("If-Range") == lastModified;
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+/**
+ * Разбор заголовка Range
+ * @param header Значение заголовка вида bytes=0-499,1000-,-500
+ * @param length Длина файла
+ * @return Диапазоны [первый, последний байт]; пустой список, если ни один диапазон не выполним;
+ * null, если заголовок некорректен или диапазонов слишком много (тогда отправляется весь файл)
+ */
+	static List<long[]> parseRanges(String header, long length) {
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		final String[] specs = header.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		final List<long[]> result = new ArrayList<>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			final int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			try {
+				final long first, last;
+				if (0 == dash) {
+					final long suffix = Long.parseLong(spec.substring(1));
+					first = Math.max(0, length - suffix);
+					last = suffix > 0 ? length - 1 : -1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					if (dash == spec.length() - 1) {
+						last = length - 1;
+					} else {
+						last = Long.parseLong(spec.substring(dash + 1));
+						if (last < first) {
+							return null;
+						}
+					}
+				}
+				if (first < length && first <= last) {
+					result.add(new long[] {first, Math.min(last, length - 1)});
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	private static String contentRange(long[] range, long length) {
+		return "bytes " + range[0] + '-' + range[1] + '/' + length;
+	}
+/**
+ * Отправка нескольких диапазонов ответом multipart/byteranges с заранее вычисленной длиной
+ */
+	private static void sendMultipart(HttpServletResponse response, Path file, String contentType,
+			List<long[]> ranges, long length) throws IOException {
+		final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong())
+			+ Long.toHexString(ThreadLocalRandom.current().nextLong());
+		final List<byte[]> headers = new ArrayList<>(ranges.size());
+		long contentLength = 0;
+		for (long[] range : ranges) {
+			final byte[] partHeader = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType
+				+ "\r\nContent-Range: " + contentRange(range, length) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+			headers.add(partHeader);
+			contentLength += partHeader.length + range[1] - range[0] + 1;
+		}
+		final byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		contentLength += trailer.length;
+
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+		response.setContentLengthLong(contentLength);
+		final OutputStream out = response.getOutputStream();
+		final WritableByteChannel target = Channels.newChannel(out);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for (int i = 0; i < ranges.size(); i++) {
+				out.write(headers.get(i));
+				transfer(channel, ranges.get(i)[0], ranges.get(i)[1] - ranges.get(i)[0] + 1, target);
+			}
+		}
+		out.write(trailer);
+		out.close();
+	}
+/**
+ * Отправка участка файла: силами контейнера (sendfile), если он это поддерживает,
+ * иначе через {@link FileChannel#transferTo}
+ */
+	private static void transfer(HttpServletRequest request, HttpServletResponse response, Path file,
+			long start, long count) throws IOException {
+		if ("HEAD".equals(request.getMethod()) || 0 == count) {
+			return;
+		}
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) && !request.isAsyncStarted()) {
+			request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, start + count);
+			return;
+		}
+		final OutputStream out = response.getOutputStream();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			transfer(channel, start, count, Channels.newChannel(out));
+		}
+		out.close();
+	}
+
+	private static void transfer(FileChannel channel, long start, long count, WritableByteChannel target)
+			throws IOException {
+		for (long position = start, end = start + count; position < end;) {
+			final long sent = channel.transferTo(position, end - position, target);
+			if (sent <= 0) {
+				throw new IOException("Файл изменился во время отправки");
+			}
+			position += sent;
+		}
+	}
+
+}
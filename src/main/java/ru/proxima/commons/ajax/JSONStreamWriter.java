@@ -0,0 +1,312 @@
+package ru.proxima.commons.ajax;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Потоковая запись JSON-ответа в кодировке UTF-8 прямо в выходной поток ответа, без построения
+ * дерева JSONObject и его строкового представления. Расход памяти не зависит от размера ответа.
+ * Ошибки ввода-вывода передаются как {@link UncheckedIOException}
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class JSONStreamWriter implements Closeable {
+
+	private static final byte OBJECT = 1, ARRAY = 2;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+/**
+ * Стек вложенности: тип контейнера на каждом уровне
+ */
+	private byte[] stack = new byte[16];
+	private int depth;
+/**
+ * Записан ли уже хотя бы один элемент в текущий контейнер
+ */
+	private boolean hasElements;
+/**
+ * Записан ключ объекта, ожидается его значение
+ */
+	private boolean afterKey;
+	private boolean written;
+/**
+ * Конструктор от выходного потока ответа
+ * @param out Поток байт, в который печатается JSON
+ */
+	public JSONStreamWriter(OutputStream out) {
+		this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+	}
+/**
+ * Начало объекта {
+ * @return this
+ */
+	public JSONStreamWriter beginObject() {
+		open(OBJECT, '{');
+		return this;
+	}
+/**
+ * Конец объекта }
+ * @return this
+ */
+	public JSONStreamWriter endObject() {
+		close(OBJECT, '}');
+		return this;
+	}
+/**
+ * Начало массива [
+ * @return this
+ */
+	public JSONStreamWriter beginArray() {
+		open(ARRAY, '[');
+		return this;
+	}
+/**
+ * Конец массива ]
+ * @return this
+ */
+	public JSONStreamWriter endArray() {
+		close(ARRAY, ']');
+		return this;
+	}
+/**
+ * Ключ очередного свойства объекта
+ * @param name Имя свойства
+ * @return this
+ */
+	public JSONStreamWriter key(String name) {
+		if (0 == depth || OBJECT != stack[depth - 1] || afterKey) {
+			throw new IllegalStateException("Ключ допустим только внутри объекта перед значением");
+		}
+		if (null == name) {
+			throw new IllegalArgumentException("Ключ не может быть null");
+		}
+		if (hasElements) {
+			write(',');
+		}
+		string(name);
+		write(':');
+		afterKey = true;
+		return this;
+	}
+/**
+ * Строковое значение
+ * @param value Значение, null печатается как null
+ * @return this
+ */
+	public JSONStreamWriter value(String value) {
+		beforeValue();
+		if (null == value) {
+			write("null");
+		} else {
+			string(value);
+		}
+		return this;
+	}
+/**
+ * Целочисленное значение
+ * @param value Значение
+ * @return this
+ */
+	public JSONStreamWriter value(long value) {
+		beforeValue();
+		write(Long.toString(value));
+		return this;
+	}
+/**
+ * Дробное значение
+ * @param value Значение, конечное число
+ * @return this
+ */
+	public JSONStreamWriter value(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("JSON не допускает значения " + value);
+		}
+		beforeValue();
+		write(Double.toString(value));
+		return this;
+	}
+/**
+ * Логическое значение
+ * @param value Значение
+ * @return this
+ */
+	public JSONStreamWriter value(boolean value) {
+		beforeValue();
+		write(value ? "true" : "false");
+		return this;
+	}
+/**
+ * Произвольное значение: JSONObject и JSONArray печатаются целиком, числа и логические
+ * значения как есть, прочие объекты - как строки
+ * @param value Значение, null и JSONObject.NULL печатаются как null
+ * @return this
+ */
+	public JSONStreamWriter value(Object value) {
+		if (value instanceof String) {
+			return value((String)value);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return value(((Number)value).longValue());
+		} else if (value instanceof Number) {
+			return value(((Number)value).doubleValue());
+		} else if (value instanceof Boolean) {
+			return value(((Boolean)value).booleanValue());
+		}
+		beforeValue();
+		if (null == value || JSONObject.NULL.equals(value)) {
+			write("null");
+		} else if (value instanceof JSONObject || value instanceof JSONArray) {
+			write(value.toString());
+		} else {
+			string(value.toString());
+		}
+		return this;
+	}
+/**
+ * Значение null
+ * @return this
+ */
+	public JSONStreamWriter nullValue() {
+		beforeValue();
+		write("null");
+		return this;
+	}
+/**
+ * Отправляет клиенту всё записанное к этому моменту
+ * @return this
+ */
+	public JSONStreamWriter flush() {
+		try {
+			out.flush();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return this;
+	}
+/**
+ * Было ли записано хоть что-нибудь
+ * @return true, если запись уже начата
+ */
+	public boolean isWritten() {
+		return written;
+	}
+/**
+ * Завершает запись и закрывает поток ответа
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ * @throws IllegalStateException Остались незакрытые объекты или массивы
+ */
+	@Override public void close() throws IOException {
+		if (0 != depth) {
+			throw new IllegalStateException("Остались незакрытые объекты или массивы: " + depth);
+		}
+		out.close();
+	}
+
+	private void open(byte type, char bracket) {
+		beforeValue();
+		write(bracket);
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = type;
+		hasElements = false;
+	}
+
+	private void close(byte type, char bracket) {
+		if (0 == depth || type != stack[depth - 1] || afterKey) {
+			throw new IllegalStateException("Нарушена вложенность JSON при закрытии " + bracket);
+		}
+		depth--;
+		write(bracket);
+		hasElements = true;
+	}
+
+	private void beforeValue() {
+		if (afterKey) {
+			afterKey = false;
+		} else if (0 != depth) {
+			if (OBJECT == stack[depth - 1]) {
+				throw new IllegalStateException("Значению свойства объекта должен предшествовать ключ");
+			}
+			if (hasElements) {
+				write(',');
+			}
+		} else if (written) {
+			throw new IllegalStateException("JSON-документ уже записан");
+		}
+		hasElements = true;
+	}
+
+	private void string(String value) {
+		write('"');
+		final int length = value.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			final String escape;
+			if (c == '"') {
+				escape = "\\\"";
+			} else if (c == '\\') {
+				escape = "\\\\";
+			} else if (c == '/' && i > 0 && value.charAt(i - 1) == '<') {
+				escape = "\\/";
+			} else if (c == '\n') {
+				escape = "\\n";
+			} else if (c == '\r') {
+				escape = "\\r";
+			} else if (c == '\t') {
+				escape = "\\t";
+			} else if (c == '\b') {
+				escape = "\\b";
+			} else if (c == '\f') {
+				escape = "\\f";
+			} else if (c < ' ' || c == '\u2028' || c == '\u2029') {
+				escape = null;
+			} else {
+				continue;
+			}
+			write(value, start, i - start);
+			if (null == escape) {
+				write("\\u");
+				write(HEX[c >> 12 & 0xF]);
+				write(HEX[c >> 8 & 0xF]);
+				write(HEX[c >> 4 & 0xF]);
+				write(HEX[c & 0xF]);
+			} else {
+				write(escape);
+			}
+			start = i + 1;
+		}
+		write(value, start, length - start);
+		write('"');
+	}
+
+	private void write(char c) {
+		try {
+			out.write(c);
+			written = true;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private void write(String s) {
+		write(s, 0, s.length());
+	}
+
+	private void write(String s, int offset, int length) {
+		try {
+			out.write(s, offset, length);
+			written = true;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package ru.proxima.commons.ajax;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+/**
+ * Сжатие ответов gzip/deflate по заголовку Accept-Encoding клиента. Экземпляры {@link Deflater}
+ * берутся из пула и возвращаются в него при закрытии потока, а не создаются на каждый запрос
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class ResponseCompression {
+
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	private static final int POOL_SIZE = 4 * Runtime.getRuntime().availableProcessors();
+	private static final ArrayBlockingQueue<Deflater> gzipPool = new ArrayBlockingQueue<>(POOL_SIZE);
+	private static final ArrayBlockingQueue<Deflater> deflatePool = new ArrayBlockingQueue<>(POOL_SIZE);
+	private static final byte[] GZIP_HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+	private ResponseCompression() {}
+/**
+ * Выбор кодировки сжатия по заголовку Accept-Encoding. Предпочтение отдаётся gzip,
+ * кодировки с q=0 считаются запрещёнными
+ * @param acceptEncoding Значение заголовка Accept-Encoding, может быть null
+ * @return {@link #GZIP}, {@link #DEFLATE}, либо null, если сжатие клиентом не поддерживается
+ */
+	public static String negotiate(String acceptEncoding) {
+		if (null == acceptEncoding) {
+			return null;
+		}
+		boolean deflate = false;
+		for (String coding : acceptEncoding.split(",")) {
+			final int semicolon = coding.indexOf(';');
+			final String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim();
+			if (semicolon >= 0 && coding.substring(semicolon + 1).trim().matches("q\\s*=\\s*0(\\.0*)?")) {
+				continue;
+			}
+			if (GZIP.equalsIgnoreCase(name) || "*".equals(name)) {
+				return GZIP;
+			} else if (DEFLATE.equalsIgnoreCase(name)) {
+				deflate = true;
+			}
+		}
+		return deflate ? DEFLATE : null;
+	}
+/**
+ * Оборачивает поток ответа сжимающим потоком. Закрытие возвращённого потока завершает сжатие,
+ * возвращает {@link Deflater} в пул и закрывает исходный поток
+ * @param out Поток байт ответа
+ * @param encoding {@link #GZIP} или {@link #DEFLATE}
+ * @return Сжимающий поток
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ */
+	public static OutputStream wrap(OutputStream out, String encoding) throws IOException {
+		if (GZIP.equals(encoding)) {
+			return new PooledDeflaterOutputStream(out, gzipPool, true);
+		} else if (DEFLATE.equals(encoding)) {
+			return new PooledDeflaterOutputStream(out, deflatePool, false);
+		}
+		throw new IllegalArgumentException("Неизвестная кодировка сжатия " + encoding);
+	}
+
+	private static final class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+		private final ArrayBlockingQueue<Deflater> pool;
+		private final CRC32 crc;
+		private boolean finished;
+		private boolean closed;
+
+		PooledDeflaterOutputStream(OutputStream out, ArrayBlockingQueue<Deflater> pool, boolean gzip)
+				throws IOException {
+			super(out, acquire(pool, gzip), 8192, true);
+			this.pool = pool;
+			this.crc = gzip ? new CRC32() : null;
+			if (gzip) {
+				out.write(GZIP_HEADER);
+			}
+		}
+
+		private static Deflater acquire(ArrayBlockingQueue<Deflater> pool, boolean gzip) {
+			final Deflater deflater = pool.poll();
+			return null != deflater ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+		}
+
+		@Override public void write(byte[] b, int off, int len) throws IOException {
+			super.write(b, off, len);
+			if (null != crc) {
+				crc.update(b, off, len);
+			}
+		}
+
+		@Override public void finish() throws IOException {
+			if (finished) {
+				return;
+			}
+			super.finish();
+			finished = true;
+			if (null != crc) {
+				writeInt((int)crc.getValue());
+				writeInt((int)def.getBytesRead());
+			}
+		}
+
+		@Override public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				finish();
+			} finally {
+				def.reset();
+				if (!pool.offer(def)) {
+					def.end();
+				}
+				out.close();
+			}
+		}
+
+		private void writeInt(int value) throws IOException {
+			out.write(value & 0xff);
+			out.write(value >> 8 & 0xff);
+			out.write(value >> 16 & 0xff);
+			out.write(value >> 24 & 0xff);
+		}
+
+	}
+
+}
@@ -0,0 +1,141 @@
+package ru.proxima.commons.ajax.impl;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CompletionStage;
+import ru.proxima.commons.ajax.AJAXEventEmitter;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXRequest;
+import ru.proxima.commons.ajax.AJAXResponse;
+import ru.proxima.commons.ajax.CommonAJAXHandler;
+import ru.proxima.commons.ajax.JSONStreamWriter;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Умолчания реализации классов-обработчиков AJAX-запросов для типа EVENT_STREAM. Ответ отправляется
+ * событиями Server-Sent Events через {@link AJAXEventEmitter}: прогресс, частичные и итоговый результаты.
+ * Поток контейнера освобождается после возврата из process, поэтому длительную работу следует
+ * исполнять в собственном пуле потоков, а по её окончании вызывать один из методов complete
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public abstract class AJAXHandlerEventStream extends CommonAJAXHandler {
+/**
+ * Получение типа обработчика, что определит который метод будет вызван для исполнения запроса.
+ * Это повлияет и на конвенцию для передаваемых параметров и возвращаемых значений
+ * @return AJAXHandlerType AJAXHandlerType.EVENT_STREAM
+ */
+	public final AJAXHandlerType getHandlerType() {
+		return AJAXHandlerType.EVENT_STREAM;
+	}
+/**
+ * Получение MIME-типа возвращаемых обработчиком данных для заголовка ответа Content-Type
+ * @return String "text/event-stream; charset=UTF-8"
+ */
+	public final String getContentType() {
+		return "text/event-stream; charset=UTF-8";
+	}
+/**
+ * Обработка AJAX-запроса с отправкой событий Server-Sent Events, параметры передаются как JSONObject.
+ * Исключение, брошенное до закрытия потока событий, отправляется клиенту событием error.
+ * Абстрактный, поэтому требует реализации подклассом
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param events Отправка событий клиенту
+ * @throws AJAXExecuteException	Работа AJAX-обработчика завершилась со сбоем
+ */
+	public abstract void process(JSONObject params, AJAXEventEmitter events)
+		throws AJAXExecuteException;
+/**
+ * Обработка AJAX-запроса на самом низком уровне - используя обёртки классов
+ * HttpServletRequest и HttpServletResponse.
+ * @param request Класс-обёртка HttpServletRequest
+ * @param response Класс-обёртка HttpServletResponse
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final void process(AJAXRequest request, AJAXResponse response)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса на низком уровне - используя обёртку класса
+ * HttpServletRequest, печатая ответ в {@link PrintWriter}.
+ * @param request Класс-обёртка HttpServletRequest
+ * @param out Печатный поток для получения данных
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final void process(AJAXRequest request, PrintWriter out)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса на низком уровне - используя обёртку класса
+ * HttpServletResponse, получая параметры в виде {@link JSONObject}.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param response Класс-обёртка HttpServletResponse
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final void process(JSONObject params, AJAXResponse response)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса на среднем уровне абстракции - ответ возвращается как {@link Object}
+ * (чаще всего {@link JSONObject}), параметры передаются как класс-обёртка HttpServletRequest.
+ * @param request Класс-обёртка HttpServletRequest
+ * @return Object Объект печатаемый в выходной поток ответа
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final Object process(AJAXRequest request)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса на высшем уровне абстракции - ответ возвращается как {@link Object}
+ * (чаще всего {@link JSONObject}), параметры передаются как {@link JSONObject}.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @return Object Объект печатаемый в выходной поток ответа
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final Object process(JSONObject params)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Асинхронная обработка AJAX-запроса - ответ возвращается как {@link CompletionStage}
+ * (чаще всего с JSONObject), параметры передаются как {@link JSONObject}.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @return CompletionStage Отложенный результат, печатаемый в выходной поток ответа
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final CompletionStage<Object> processAsync(JSONObject params)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса на низком уровне - используя обёртку класса
+ * {@link PrintWriter}, получая параметры в виде JSONObject.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param out Печатный поток для получения данных
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final void process(JSONObject params, PrintWriter out)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса с потоковой записью JSON-ответа, параметры передаются как {@link JSONObject}.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param out Потоковая запись JSON-ответа
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final void process(JSONObject params, JSONStreamWriter out)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+
+}
@@ -1,10 +1,13 @@
 package ru.proxima.commons.ajax.impl;
 
 import java.io.PrintWriter;
+import java.util.concurrent.CompletionStage;
+import ru.proxima.commons.ajax.AJAXEventEmitter;
 import ru.proxima.commons.ajax.AJAXExecuteException;
 import ru.proxima.commons.ajax.AJAXRequest;
 import ru.proxima.commons.ajax.AJAXResponse;
 import ru.proxima.commons.ajax.CommonAJAXHandler;
+import ru.proxima.commons.ajax.JSONStreamWriter;
 import ru.proxima.commons.json.JSONObject;
 /**
  * Умолчания реализации классов-обработчиков AJAX-запросов для типа JSON_INPUT_RAW
@@ -99,5 +102,39 @@ public abstract class AJAXHandlerJSONInRaw extends CommonAJAXHandler {
 		throw new UnsupportedOperationException(
 			"Данный обработчик не может работать с таким типом запроса");
 	}
+/**
+ * Асинхронная обработка AJAX-запроса - ответ возвращается как {@link CompletionStage}
+ * (чаще всего с JSONObject), параметры передаются как {@link JSONObject}.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @return CompletionStage Отложенный результат, печатаемый в выходной поток ответа
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final CompletionStage<Object> processAsync(JSONObject params)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса с потоковой записью JSON-ответа, параметры передаются как {@link JSONObject}.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param out Потоковая запись JSON-ответа
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final void process(JSONObject params, JSONStreamWriter out)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
+/**
+ * Обработка AJAX-запроса с отправкой событий Server-Sent Events, параметры передаются как {@link JSONObject}.
+ * @param params JSONObject, содержащий все входные параметры обработчика
+ * @param events Отправка событий клиенту
+ * @throws UnsupportedOperationException В данном подклассе и его потомках - не поддерживается
+ */
+	public final void process(JSONObject params, AJAXEventEmitter events)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+			"Данный обработчик не может работать с таким типом запроса");
+	}
 
 }
@@ -0,0 +1,255 @@
+package ru.proxima.commons.ajax.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+/**
+ * Процессор аннотаций, формирующий при сборке индекс AJAX-обработчиков модуля: класс,
+ * реализующий {@code ru.proxima.commons.ajax.AJAXHandlerIndex}, и записи META-INF/services.
+ * Обработчиками считаются все неабстрактные наследники CommonAJAXHandler, аннотации не требуются.
+ * Имя модуля берётся из параметра {@code -Aajax.module}, иначе из META-INF/AJAX.properties
+ * (уже скопированного в каталог классов), иначе core. Повторное объявление module.action -
+ * ошибка сборки. Имя класса индекса задаётся параметром {@code -Aajax.index}, по умолчанию
+ * AJAXHandlers в пакете первого по алфавиту обработчика
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions({AJAXHandlerProcessor.MODULE_OPTION, AJAXHandlerProcessor.INDEX_OPTION})
+public final class AJAXHandlerProcessor extends AbstractProcessor {
+
+	static final String MODULE_OPTION = "ajax.module";
+	static final String INDEX_OPTION = "ajax.index";
+
+	private static final String HANDLER = "ru.proxima.commons.ajax.CommonAJAXHandler";
+	private static final String INDEX = "ru.proxima.commons.ajax.AJAXHandlerIndex";
+
+	private boolean generated;
+
+	@Override public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		final TypeElement base = processingEnv.getElementUtils().getTypeElement(HANDLER);
+		if (roundEnv.processingOver() || null == base) {
+			return false;
+		}
+		final List<TypeElement> found = new ArrayList<>();
+		for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+			collect(type, processingEnv.getTypeUtils().erasure(base.asType()), found);
+		}
+		if (found.isEmpty()) {
+			return false;
+		} else if (generated) {
+			for (TypeElement type : found) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+					"AJAX-обработчик создан другим процессором и не попадёт в индекс", type);
+			}
+			return false;
+		}
+		generated = true;
+
+		final String module = getModule();
+		final Map<String, TypeElement> actions = new TreeMap<>();
+		boolean valid = true;
+		for (TypeElement type : found) {
+			valid &= validate(type);
+			final String action = type.getSimpleName().toString();
+			final TypeElement previous = actions.put(action, type);
+			if (null != previous) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "AJAX-обработчик " + module + "."
+					+ action + " уже объявлен классом " + previous.getQualifiedName(), type);
+				valid = false;
+			}
+		}
+		if (valid) {
+			try {
+				final String index = writeIndex(module, actions);
+				writeServices(HANDLER, binaryNames(actions));
+				writeServices(INDEX, Collections.singleton(index));
+			} catch (IOException ex) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Не удалось сформировать индекс AJAX-обработчиков: " + ex.getLocalizedMessage());
+			}
+		}
+		return false;
+	}
+
+	private void collect(TypeElement type, TypeMirror base, List<TypeElement> found) {
+		if (ElementKind.CLASS == type.getKind() && !type.getModifiers().contains(Modifier.ABSTRACT)
+				&& processingEnv.getTypeUtils().isSubtype(processingEnv.getTypeUtils().erasure(type.asType()), base)) {
+			found.add(type);
+		}
+		for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+			collect(member, base, found);
+		}
+	}
+/**
+ * Проверка, что обработчик можно создать так же, как это делает ServiceLoader
+ */
+	private boolean validate(TypeElement type) {
+		String problem = null;
+		if (!type.getModifiers().contains(Modifier.PUBLIC)) {
+			problem = "должен быть public";
+		} else if (NestingKind.MEMBER == type.getNestingKind() && !type.getModifiers().contains(Modifier.STATIC)) {
+			problem = "должен быть static";
+		} else if (NestingKind.LOCAL == type.getNestingKind() || NestingKind.ANONYMOUS == type.getNestingKind()) {
+			problem = "не может быть локальным или анонимным";
+		} else {
+			boolean constructor = false;
+			for (ExecutableElement ctor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+				constructor |= ctor.getParameters().isEmpty() && ctor.getModifiers().contains(Modifier.PUBLIC);
+			}
+			if (!constructor) {
+				problem = "должен иметь public конструктор без параметров";
+			}
+		}
+		if (null != problem) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "AJAX-обработчик " + problem, type);
+		}
+		return null == problem;
+	}
+
+	private String getModule() {
+		final String option = processingEnv.getOptions().get(MODULE_OPTION);
+		if (null != option && !option.trim().isEmpty()) {
+			return option.trim();
+		}
+		try {
+			final FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+				"META-INF/AJAX.properties");
+			final Properties properties = new Properties();
+			try (InputStream in = file.openInputStream()) {
+				properties.load(in);
+			}
+			return properties.getProperty("moduleName", "core");
+		} catch (IOException | IllegalArgumentException ex) {
+			return "core";
+		}
+	}
+	private Set<String> binaryNames(Map<String, TypeElement> actions) {
+		final Set<String> result = new TreeSet<>();
+		for (TypeElement type : actions.values()) {
+			result.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+		}
+		return result;
+	}
+
+	private String writeIndex(String module, Map<String, TypeElement> actions) throws IOException {
+		String index = processingEnv.getOptions().get(INDEX_OPTION);
+		if (null == index || index.trim().isEmpty()) {
+			String first = null;
+			for (TypeElement type : actions.values()) {
+				final String name = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+				first = null == first || name.compareTo(first) < 0 ? name : first;
+			}
+			index = first.isEmpty() ? "AJAXHandlers" : first + ".AJAXHandlers";
+		}
+		index = index.trim();
+		final int dot = index.lastIndexOf('.');
+		final Element[] origins = actions.values().toArray(new Element[actions.size()]);
+
+		try (Writer out = processingEnv.getFiler().createSourceFile(index, origins).openWriter()) {
+			if (dot > 0) {
+				out.write("package " + index.substring(0, dot) + ";\n\n");
+			}
+			out.write("import java.util.Arrays;\n"
+				+ "import java.util.Collections;\n"
+				+ "import java.util.List;\n"
+				+ "import ru.proxima.commons.ajax.AJAXHandlerIndex;\n"
+				+ "/**\n * Индекс AJAX-обработчиков модуля " + module + ", сформирован "
+				+ getClass().getSimpleName() + "\n */\n"
+				+ "public final class " + index.substring(dot + 1) + " implements AJAXHandlerIndex {\n\n"
+				+ "\tprivate static final List<Handler> HANDLERS = Collections.unmodifiableList(Arrays.asList(");
+			String separator = "\n";
+			for (Map.Entry<String, TypeElement> action : actions.entrySet()) {
+				final TypeElement type = action.getValue();
+				out.write(separator + "\t\tnew Handler(" + literal(module) + ", " + literal(action.getKey()) + ", "
+					+ literal(processingEnv.getElementUtils().getBinaryName(type).toString()) + ", "
+					+ type.getQualifiedName() + "::new)");
+				separator = ",\n";
+			}
+			out.write("));\n\n"
+				+ "\t@Override public List<Handler> getHandlers() {\n"
+				+ "\t\treturn HANDLERS;\n"
+				+ "\t}\n\n"
+				+ "}\n");
+		}
+		return index;
+	}
+/**
+ * Запись файла META-INF/services с сохранением уже перечисленных в нём классов
+ */
+	private void writeServices(String service, Set<String> names) throws IOException {
+		final String path = "META-INF/services/" + service;
+		final Set<String> lines = new TreeSet<>(names);
+		try {
+			final FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", path);
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+				for (String line = reader.readLine(); null != line; line = reader.readLine()) {
+					final int comment = line.indexOf('#');
+					final String name = (comment < 0 ? line : line.substring(0, comment)).trim();
+					if (!name.isEmpty()) {
+						lines.add(name);
+					}
+				}
+			}
+		} catch (IOException | IllegalArgumentException ex) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Создаётся " + path);
+		}
+		final FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", path);
+		try (Writer out = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		}
+	}
+
+	private static String literal(String value) {
+		if (null == value) {
+			return "null";
+		}
+		final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+		for (char c : value.toCharArray()) {
+			if ('"' == c || '\\' == c) {
+				sb.append('\\').append(c);
+			} else if (c < ' ' || c > '~') {
+				sb.append(String.format("\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+}
@@ -1,12 +1,27 @@
 package ru.proxima.commons.ajax.servlet;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.util.Arrays;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.ServiceLoader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -14,50 +29,274 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.proxima.commons.ajax.AJAXBusinessException;
+import ru.proxima.commons.ajax.AJAXContext;
+import ru.proxima.commons.ajax.AJAXDeadline;
+import ru.proxima.commons.ajax.AJAXEventEmitter;
 import ru.proxima.commons.ajax.AJAXExecuteException;
 import ru.proxima.commons.ajax.AJAXHandler;
+import ru.proxima.commons.ajax.AJAXHandler.AJAXHandlerType;
+import ru.proxima.commons.ajax.AJAXHandlerIndex;
 import ru.proxima.commons.ajax.AJAXRequest;
 import ru.proxima.commons.ajax.AJAXResponse;
+import ru.proxima.commons.ajax.AJAXTopics;
 import ru.proxima.commons.ajax.CommonAJAXHandler;
+import ru.proxima.commons.ajax.JSONStreamWriter;
+import ru.proxima.commons.ajax.ResponseCompression;
+import ru.proxima.commons.json.JSONArray;
 import ru.proxima.commons.json.JSONException;
 import ru.proxima.commons.json.JSONObject;
+import ru.proxima.commons.json.JSONTokener;
 /**
  * Сервлет загрузки, хранения и вызова классов-обработчиков AJAX-запросов
  * @author Шомин Владимир, ЗАО ИВЦ Инсофт
  */
-@WebServlet(name="AJAX", urlPatterns="/AJAX")
+@WebServlet(name="AJAX", urlPatterns="/AJAX", asyncSupported=true)
 public final class AJAX extends HttpServlet {
 
-	private static final HashMap<String, AJAXHandler> handlers = new HashMap<>();
+/**
+ * Неизменяемый снимок реестра обработчиков: модуль -&gt; действие -&gt; поставщик обработчика.
+ * Заменяется целиком при загрузке обработчиков, поэтому читается без блокировок
+ */
+	private static volatile Map<String, Map<String, HandlerProvider>> handlers = Collections.emptyMap();
 	private static final Logger logger = LoggerFactory.getLogger(AJAX.class);
+/**
+ * Модули, все обработчики которых исполняются вне потоков контейнера (параметр сервлета offloadModules)
+ */
+	private static volatile Set<String> offloadModules = Collections.emptySet();
+/**
+ * Ограничение параллельности вынесенного исполнения для обработчиков из offloadModules
+ * (параметр сервлета offloadConcurrency)
+ */
+	private static volatile int offloadConcurrency = 64;
+/**
+ * Модули, обработчики которых создаются при загрузке, а не при первом обращении
+ * (параметр сервлета eagerModules, * - все модули)
+ */
+	private static volatile Set<String> eagerModules = Collections.emptySet();
+/**
+ * Контекст, передаваемый загружаемым обработчикам
+ */
+	private static volatile AJAXContext context = AJAXContext.EMPTY;
 
-	private String siteRoot;
+/**
+ * Исполнитель вынесенных обработчиков, метрики которого публикует core.Metrics
+ */
+	private static volatile OffloadExecutor offloadExecutor;
+/**
+ * Исполнитель пакетных вызовов, общий с транспортом WebSocket ({@link AJAXSocket})
+ */
+	private static volatile BatchProcessor batchProcessor;
+/**
+ * Запрос, исполняемый обработчиком типа JSON_ASYNC в текущем потоке (для проверки права
+ * подписки встроенного обработчика core.Subscribe, которому запрос не передаётся)
+ */
+	private static final ThreadLocal<HttpServletRequest> asyncRequest = new ThreadLocal<>();
+	private ResponseCache responseCache;
+	private EventStreams eventStreams;
+	private TopicHub topicHub;
+	private final SingleFlight singleFlight = new SingleFlight();
+/**
+ * Допустимый размер JSON-тела запроса в байтах (параметр сервлета maxJSONBodySize)
+ */
+	private int maxJSONBodySize;
+/**
+ * Размер ответа в байтах, начиная с которого он сжимается (параметр сервлета compressionMinSize),
+ * отрицательное значение отключает сжатие ответов
+ */
+	private int compressionMinSize;
 /**
  * Инициализация данного сервлета сопровождается загрузкой всех AJAX-обработчиков
  * из доступного загрузчика классов
- * @param	sconf	не имеет значения
+ * @param	sconf	Конфигурация сервлета, из которой берутся параметры offloadModules, offloadConcurrency,
+ * offloadThreads (наибольшее число обычных потоков вынесенного исполнения без виртуальных потоков), eagerModules,
+ * maxJSONBodySize, batchThreads, batchMaxSize, cacheMaxBytes, compressionMinSize, eventHeartbeat (интервал пульсов
+ * потоков событий в миллисекундах), topicQueueSize, topicPollTimeout, topicMaxSubscribers и topicMaxSubscribersPerClient
+ * (очередь подписчика концентратора тем, время ожидания опроса в миллисекундах, наибольшее число подписчиков
+ * в целом и у одного клиента),
+ * путь транспорта WebSocket webSocketPath (если не задан, транспорт не развёртывается), а также размер
+ * буфера неудачных вызовов failureLogSize и ограничения обработчиков limit.module.action (применяются
+ * при создании обработчика). Встроенные обработчики core.Metrics и core.Failures регистрируются,
+ * только если заданы параметры metricsRole и failuresRole соответственно - роли их пользователей;
+ * перечень заголовков, сохраняемых для core.Failures, задаётся параметром failureHeaders
  */
 	@Override public void init(ServletConfig sconf) {
-		siteRoot = sconf.getServletContext().getRealPath("/");
+		topicHub = new TopicHub(getIntParameter(sconf, "topicQueueSize", 100),
+			getIntParameter(sconf, "topicPollTimeout", 25000), getIntParameter(sconf, "topicMaxSubscribers", 10000),
+			getIntParameter(sconf, "topicMaxSubscribersPerClient", 16));
+		context = createContext(sconf, topicHub);
+		maxJSONBodySize = getIntParameter(sconf, "maxJSONBodySize", 16 * 1024 * 1024);
+		compressionMinSize = getIntParameter(sconf, "compressionMinSize", 1024);
+		offloadModules = getListParameter(sconf, "offloadModules");
+		eagerModules = getListParameter(sconf, "eagerModules");
+		offloadConcurrency = getIntParameter(sconf, "offloadConcurrency", offloadConcurrency);
+		offloadExecutor = new OffloadExecutor(getIntParameter(sconf, "offloadThreads", offloadConcurrency));
+		batchProcessor = new BatchProcessor(
+			getIntParameter(sconf, "batchThreads", 2 * Runtime.getRuntime().availableProcessors()),
+			getIntParameter(sconf, "batchMaxSize", 64));
+		responseCache = new ResponseCache(getIntParameter(sconf, "cacheMaxBytes", 32 * 1024 * 1024));
+		eventStreams = new EventStreams(getIntParameter(sconf, "eventHeartbeat", 15000));
 		loadHandlers(AJAX.class.getClassLoader());
+		registerDiagnostics(sconf, Metrics.class, Metrics.ROLE_PARAMETER);
+		registerDiagnostics(sconf, Failures.class, Failures.ROLE_PARAMETER);
+		final String webSocketPath = sconf.getInitParameter("webSocketPath");
+		if (null != webSocketPath && !webSocketPath.trim().isEmpty()) {
+			AJAXSocket.deploy(sconf.getServletContext(), webSocketPath.trim());
+		}
 	}
 /**
  * Выполнить действия по освобождению ресурсов, затребованных обработчиками
  */
 	@Override public void destroy() {
-		handlers.values().forEach(hndl -> hndl.destroy());
+		offloadExecutor.shutdown();
+		final BatchProcessor processor = batchProcessor;
+		batchProcessor = null;
+		processor.shutdown();
+		responseCache.shutdown();
+		eventStreams.shutdown();
+		topicHub.shutdown();
+		handlers.values().forEach(actions -> actions.values().forEach(provider -> {
+			final HandlerEntry entry = provider.peek();
+			if (null != entry) {
+				entry.handler.destroy();
+			}
+		}));
 	}
 /**
- * Метод загрузки AJAX-обработчиков из указанного загрузчика классов, использует {@link ServiceLoader}
+ * Метод загрузки AJAX-обработчиков из указанного загрузчика классов. Сначала читаются индексы
+ * обработчиков ({@link AJAXHandlerIndex}), сформированные при сборке: модуль и действие берутся
+ * из них без рефлексии и чтения META-INF/AJAX.properties (классы обработчиков при этом загружаются
+ * ссылками на конструкторы, но не инициализируются). Затем - файлы META-INF/services (в том же порядке,
+ * что и {@link java.util.ServiceLoader}) для классов, не попавших ни в один индекс.
+ * Источники обрабатываются параллельно.
+ * Новый реестр собирается в копии текущего и публикуется одной записью, поэтому
+ * параллельно обслуживаемые запросы не блокируются и не видят его в промежуточном состоянии.
+ * Реестр хранит поставщиков: модуль и действие определяются по классу, а сам обработчик создаётся
+ * и инициализируется контекстом сервлета при первом обращении. Обработчики модулей из eagerModules
+ * создаются сразу, до публикации, и не регистрируются, если создать их не удалось
  * @param	cl	Целевой загрузчик классов для исследования
  */
 	public static synchronized void loadHandlers(ClassLoader cl) {
-		for (CommonAJAXHandler handler : ServiceLoader.load(CommonAJAXHandler.class, cl)) {
-			final String index = handler.getModule() + "." + handler.getAction();
-			if (!handlers.containsKey(index)) {
-				handlers.put(index, handler);
-				logger.trace("Загружен AJAX-обработчик " + index);
+		final long started = System.nanoTime();
+		final HashMap<String, Map<String, HandlerProvider>> snapshot = new HashMap<>();
+		handlers.forEach((module, actions) -> snapshot.put(module, new HashMap<>(actions)));
+		final List<HandlerProvider> added = new ArrayList<>();
+		final List<HandlerProvider> eager = new ArrayList<>();
+		final int sources;
+
+		try (HandlerDiscovery discovery = new HandlerDiscovery(cl)) {
+			sources = discovery.getIndexes().size() + discovery.getSources().size();
+			final AJAXContext handlerContext = context;
+			final List<List<HandlerProvider>> discovered = new ArrayList<>(discovery.map(discovery.getIndexes(), name -> {
+				final AJAXHandlerIndex index = discovery.loadIndex(name);
+				final List<HandlerProvider> providers = new ArrayList<>();
+				for (AJAXHandlerIndex.Handler handler : null == index
+						? Collections.<AJAXHandlerIndex.Handler>emptyList() : index.getHandlers()) {
+					providers.add(new HandlerProvider(handler,
+						offloadModules.contains(handler.getModule()) ? offloadConcurrency : 0, handlerContext));
+				}
+				return providers;
+			}));
+			final Set<String> indexed = new HashSet<>();
+			discovered.forEach(providers -> providers.forEach(provider -> indexed.add(provider.className)));
+			discovered.addAll(discovery.map(discovery.getSources(), names -> {
+				final List<HandlerProvider> providers = new ArrayList<>(names.size());
+				for (String name : names) {
+					if (indexed.contains(name)) {
+						continue;
+					}
+					final Class<? extends CommonAJAXHandler> type = discovery.load(name);
+					try {
+						if (null != type) {
+							final String module = CommonAJAXHandler.getModuleName(type);
+							providers.add(new HandlerProvider(type,
+								offloadModules.contains(module) ? offloadConcurrency : 0, handlerContext));
+						}
+					} catch (RuntimeException ex) {
+						logger.error("Не удалось зарегистрировать AJAX-обработчик " + name, ex);
+					}
+				}
+				return providers;
+			}));
+			for (List<HandlerProvider> providers : discovered) {
+				for (HandlerProvider provider : null == providers
+						? Collections.<HandlerProvider>emptyList() : providers) {
+					final Map<String, HandlerProvider> actions = snapshot.computeIfAbsent(provider.module,
+						key -> new HashMap<>());
+					final HandlerProvider existing = actions.putIfAbsent(provider.action, provider);
+					if (null == existing) {
+						added.add(provider);
+						if (eagerModules.contains("*") || eagerModules.contains(provider.module)) {
+							eager.add(provider);
+						}
+					} else if (!existing.className.equals(provider.className)) {
+						logger.warn("AJAX-обработчик " + provider.index + " уже зарегистрирован классом "
+							+ existing.className + ", класс " + provider.className + " пропущен");
+					}
+				}
 			}
+
+			final List<Boolean> created = discovery.map(eager, AJAX::createHandler);
+			for (int i = 0; i < eager.size(); i++) {
+				if (!Boolean.TRUE.equals(created.get(i))) {
+					snapshot.get(eager.get(i).module).remove(eager.get(i).action);
+					added.remove(eager.get(i));
+				}
+			}
+		} catch (IOException ex) {
+			logger.error("Не удалось найти AJAX-обработчики", ex);
+			return;
+		}
+
+		snapshot.values().removeIf(Map::isEmpty);
+		snapshot.replaceAll((module, actions) -> Collections.unmodifiableMap(actions));
+		handlers = Collections.unmodifiableMap(snapshot);
+		logger.info("Зарегистрировано AJAX-обработчиков: " + added.size() + " (создано сразу: " + eager.size()
+			+ ") из " + sources + " источников за " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+			+ " мс");
+	}
+/**
+ * Регистрация встроенного диагностического обработчика, если задан параметр сервлета
+ * с ролью его пользователей. Реестр, как и при загрузке, публикуется одной записью
+ * @param	sconf	Конфигурация сервлета
+ * @param	type	Класс обработчика
+ * @param	roleParameter	Имя параметра сервлета с ролью пользователей обработчика
+ */
+	private static synchronized void registerDiagnostics(ServletConfig sconf,
+			Class<? extends DiagnosticHandler> type, String roleParameter) {
+		final String role = sconf.getInitParameter(roleParameter);
+		if (null == role || role.trim().isEmpty()) {
+			return;
+		}
+		final String module = CommonAJAXHandler.getModuleName(type);
+		final HandlerProvider provider = new HandlerProvider(type,
+			offloadModules.contains(module) ? offloadConcurrency : 0, context);
+		final Map<String, HandlerProvider> actions = new HashMap<>(
+			handlers.getOrDefault(module, Collections.<String, HandlerProvider>emptyMap()));
+		final HandlerProvider existing = actions.putIfAbsent(provider.action, provider);
+		if (null != existing) {
+			logger.warn("AJAX-обработчик " + provider.index + " уже зарегистрирован классом "
+				+ existing.className + ", встроенный обработчик не зарегистрирован");
+			return;
+		}
+		final HashMap<String, Map<String, HandlerProvider>> snapshot = new HashMap<>(handlers);
+		snapshot.put(module, Collections.unmodifiableMap(actions));
+		handlers = Collections.unmodifiableMap(snapshot);
+		logger.info("Зарегистрирован диагностический AJAX-обработчик " + provider.index + " для роли " + role.trim());
+	}
+/**
+ * Создание обработчика при загрузке (для модулей из eagerModules)
+ * @param	provider	Поставщик обработчика
+ * @return true, если обработчик готов к работе
+ */
+	private static boolean createHandler(HandlerProvider provider) {
+		try {
+			provider.get();
+			logger.trace("Загружен AJAX-обработчик " + provider.index);
+			return true;
+		} catch (IllegalStateException ex) {
+			logger.error(ex.getMessage(), ex.getCause());
+			return false;
 		}
 	}
 /**
@@ -66,61 +305,305 @@ public final class AJAX extends HttpServlet {
  * @param	module	Модуль AJAX-обработчика
  * @return AJAX-обработчик
  * @throws	UnsupportedOperationException	Недопустимые параметры, либо затребованный обработчик не обнаружен
+ * @throws	IllegalStateException	Обработчик не удалось создать при первом обращении
  */
 	public static AJAXHandler getHandler(String action, String module)
-			throws UnsupportedOperationException{
+			throws UnsupportedOperationException, IllegalStateException {
+		return getEntry(action, module).handler;
+	}
+/**
+ * Записи уже созданных обработчиков текущего снимка реестра, упорядоченные по имени module.action
+ * @return Записи реестра AJAX-обработчиков
+ */
+	static List<HandlerEntry> getEntries() {
+		final List<HandlerEntry> result = new ArrayList<>();
+		handlers.values().forEach(actions -> actions.values().forEach(provider -> {
+			final HandlerEntry entry = provider.peek();
+			if (null != entry) {
+				result.add(entry);
+			}
+		}));
+		result.sort(Comparator.comparing(entry -> entry.index));
+		return result;
+	}
+/**
+ * Исполнитель пакетных вызовов
+ * @return Исполнитель, либо null, если сервлет не инициализирован
+ */
+	static BatchProcessor getBatchProcessor() {
+		return batchProcessor;
+	}
+/**
+ * Исполнитель вынесенных обработчиков
+ * @return Исполнитель, либо null, если сервлет не инициализирован
+ */
+	static OffloadExecutor getOffloadExecutor() {
+		return offloadExecutor;
+	}
+/**
+ * Запрос, исполняемый обработчиком типа JSON_ASYNC в текущем потоке
+ * @return Запрос, либо null вне вызова processAsync
+ */
+	static HttpServletRequest getAsyncRequest() {
+		return asyncRequest.get();
+	}
+/**
+ * Поиск записи реестра по модулю и действию. Не выделяет память и не берёт блокировок,
+ * кроме первого обращения, создающего обработчик
+ * @param	action	Имя AJAX-обработчика
+ * @param	module	Модуль AJAX-обработчика
+ * @return Запись реестра AJAX-обработчика
+ * @throws	UnsupportedOperationException	Недопустимые параметры, либо затребованный обработчик не обнаружен
+ * @throws	IllegalStateException	Обработчик не удалось создать при первом обращении
+ */
+	static HandlerEntry getEntry(String action, String module)
+			throws UnsupportedOperationException, IllegalStateException {
 		if (null == action) {
 			throw new UnsupportedOperationException("Action is not defined");
 		} else if (null == module) {
 			module = CommonAJAXHandler.getDefaultModuleName();
 		}
-		AJAXHandler handler = handlers.get(module + "." + action);
-		if (null == handler) {
+		final Map<String, HandlerProvider> actions = handlers.get(module);
+		final HandlerProvider provider = null == actions ? null : actions.get(action);
+		if (null == provider) {
 			throw new UnsupportedOperationException("Handler " + module + "." + action + " is not loaded");
 		} else {
-			return handler;
+			return provider.get();
 		}
 	}
 
 	private void processRequest(HttpServletRequest request, HttpServletResponse response)
 			throws IOException {
 		request.setCharacterEncoding("UTF-8");
-		PrintWriter out;
-		AJAXRequest ajaxRequest = new AJAXRequest(request);
-		AJAXResponse ajaxResponse = new AJAXResponse(response);
 		String crossDomainAllowed;
-		String paramsStr = request.getParameter("params");
-		JSONObject params = null;
-		AJAXHandler handler;
+		JSONObject params;
+		HandlerEntry entry;
+
+		final String batch = request.getParameter("batch");
+		if (null != batch) {
+			processBatch(request, response, batch);
+			return;
+		}
 
 		try {
-			handler = getHandler(request.getParameter("action"), request.getParameter("module"));
+			entry = getEntry(request.getParameter("action"), request.getParameter("module"));
 		} catch (UnsupportedOperationException ex) {
 			logger.warn("Обращение к несуществующему обработчику", ex);
 			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
 			return;
+		} catch (IllegalStateException ex) {
+			logger.error(ex.getMessage(), ex.getCause());
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return;
 		}
 
-		crossDomainAllowed = handler.getCrossDomains();
+		crossDomainAllowed = entry.handler.getCrossDomains();
 		if (crossDomainAllowed != null) {
 			response.setHeader("Access-Control-Allow-Origin", crossDomainAllowed);
 		}
 
 		try {
-			if (null != paramsStr) {
-				params = new JSONObject(paramsStr);
+			params = readParams(entry.handler, request);
+		} catch (IOException | JSONException ex) {
+			logger.warn("Не удалось прочитать JSON-тело запроса к AJAX-обработчику " + entry.index, ex);
+			response.sendError(RequestBody.getErrorStatus(ex));
+			return;
+		}
+
+		final AJAXDeadline deadline = getDeadline(entry.handler, request);
+		if (null != deadline) {
+			request.setAttribute(AJAXDeadline.ATTRIBUTE, deadline);
+		}
+		final AJAXHandlerType type = entry.handler.getHandlerType();
+		if (AJAXHandlerType.JSON_ASYNC != type && AJAXHandlerType.EVENT_STREAM != type
+				&& (null != entry.offload || null != deadline)) {
+			offload(entry, request, response, params, deadline);
+		} else if (admit(entry, response)) {
+			dispatch(entry, request, new MeteredResponse(response, entry.metrics), params, deadline);
+		}
+	}
+/**
+ * Срок исполнения запроса: меньшее из времени обработчика и времени, переданного клиентом
+ * в заголовке X-Request-Timeout (в миллисекундах). Заголовок лишь сокращает срок, заданный
+ * обработчиком: без него заголовок не создаёт срок и, следовательно, не выносит исполнение
+ * из потока контейнера. Некорректный заголовок игнорируется
+ * @param	handler	AJAX-обработчик
+ * @param	request	Запрос
+ * @return Срок запроса, либо null, если время исполнения не ограничено
+ */
+	private static AJAXDeadline getDeadline(AJAXHandler handler, HttpServletRequest request) {
+		long timeout = handler.getTimeout();
+		if (timeout <= 0) {
+			return null;
+		}
+		final String header = request.getHeader(AJAXDeadline.HEADER);
+		if (null != header) {
+			try {
+				final long requested = Long.parseLong(header.trim());
+				if (requested > 0) {
+					timeout = Math.min(timeout, requested);
+				}
+			} catch (NumberFormatException ex) {
+				logger.debug("Некорректный заголовок " + AJAXDeadline.HEADER + ": " + header, ex);
+			}
+		}
+		return new AJAXDeadline(timeout);
+	}
+/**
+ * Допуск вызова по ограничению обработчика (параметр сервлета limit.module.action).
+ * Не допущенный вызов сразу получает ответ 503 с заголовком Retry-After; JSON-типы
+ * обработчиков получают его в виде стандартного сообщения об ошибке
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	response	Ответ
+ * @return true, если вызов допущен и должен быть исполнен методом dispatch
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private static boolean admit(HandlerEntry entry, HttpServletResponse response) throws IOException {
+		if (null == entry.limit) {
+			return true;
+		}
+		final long retryAfter = entry.limit.acquire();
+		if (HandlerLimit.ADMITTED == retryAfter) {
+			return true;
+		}
+		entry.metrics.error("rejected");
+		logger.debug("Вызов AJAX-обработчика {} отклонён ограничением, повтор через {} с", entry.index, retryAfter);
+		response.setHeader("Retry-After", String.valueOf(retryAfter));
+		switch (entry.handler.getHandlerType()) {
+			case JSON_OUTPUT:
+			case JSON_IN_OUT:
+			case JSON_ASYNC:
+			case JSON_STREAM:
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				response.setContentType(entry.handler.getContentType());
+				printError(entry.handler, response, "Service temporarily unavailable");
+				break;
+			default:
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+		return false;
+	}
+/**
+ * Пакетный вызов: массив объектов {module, action, params} передаётся в параметре batch,
+ * либо JSON-телом POST-запроса с параметром batch в строке запроса. Вызовы исполняются
+ * параллельно, ответом является массив их результатов в том же порядке
+ * @param	request	Запрос
+ * @param	response	Ответ
+ * @param	batch	Значение параметра batch
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private void processBatch(HttpServletRequest request, HttpServletResponse response, String batch)
+			throws IOException {
+		final JSONArray calls;
+		try {
+			calls = RequestBody.isJSON(request)
+				? new JSONArray(new JSONTokener(RequestBody.openReader(request, maxJSONBodySize)))
+				: new JSONArray(batch);
+		} catch (IOException | JSONException ex) {
+			logger.warn("Не удалось прочитать пакетный AJAX-запрос", ex);
+			response.sendError(RequestBody.getErrorStatus(ex));
+			return;
+		}
+		final BatchProcessor processor = batchProcessor;
+		if (null == processor) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		if (calls.length() > processor.maxSize) {
+			logger.warn("Пакетный AJAX-запрос содержит " + calls.length() + " вызовов, допустимо "
+				+ processor.maxSize);
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return;
+		}
+
+		final JSONArray results = processor.execute(calls, request.getRemoteAddr());
+		response.setContentType("application/json; charset=UTF-8");
+		PrintWriter out = response.getWriter();
+		out.print(results.toString());
+		out.close();
+	}
+/**
+ * Получение входных параметров обработчика: из JSON-тела POST-запроса (Content-Type: application/json),
+ * если обработчик принимает параметры как JSONObject, иначе из параметра запроса params.
+ * Тело разбирается прямо из входного потока, минуя декодирование формы
+ * @param	handler	AJAX-обработчик
+ * @param	request	Запрос
+ * @return Параметры с добавленным remoteAddr, либо null, если параметры не переданы
+ * @throws	IOException	Тело запроса превышает допустимый размер, либо обнаружена ошибка ввода-вывода
+ * @throws	JSONException	Тело запроса не является JSON-объектом
+ */
+	private JSONObject readParams(AJAXHandler handler, HttpServletRequest request)
+			throws IOException, JSONException {
+		JSONObject params = null;
+		if (RequestBody.isJSON(request) && isJSONInput(handler.getHandlerType())) {
+			params = new JSONObject(new JSONTokener(RequestBody.openReader(request, maxJSONBodySize)));
+		} else {
+			String paramsStr = request.getParameter("params");
+			try {
+				if (null != paramsStr) {
+					params = new JSONObject(paramsStr);
+				}
+			} catch (JSONException ex) {
+				logger.debug("Некорректный параметр params", ex);
+			}
+		}
+		try {
+			if (null != params) {
 				params.putOnce("remoteAddr", request.getRemoteAddr());
 			}
 		} catch (JSONException ex) {
 			logger.debug("Параметр remoteAddr уже присутствует", ex);
 		}
+		return params;
+	}
+/**
+ * Принимает ли обработчик данного типа параметры как JSONObject
+ * @param	type	Тип AJAX-обработчика
+ * @return true для типов, получающих параметры как JSONObject
+ */
+	private static boolean isJSONInput(AJAXHandlerType type) {
+		switch (type) {
+			case JSON_INPUT:
+			case JSON_INPUT_RAW:
+			case JSON_IN_OUT:
+			case JSON_ASYNC:
+			case JSON_STREAM:
+			case EVENT_STREAM:
+				return true;
+			default:
+				return false;
+		}
+	}
+/**
+ * Исполнение AJAX-обработчика согласно его типу и печать ответа. Длительность исполнения,
+ * ошибки и объём ответа учитываются в метриках обработчика. Вызов должен быть допущен
+ * методом admit; разрешение возвращается по окончании исполнения. На время исполнения
+ * срок запроса привязывается к потоку ({@link AJAXDeadline#current()}); ошибки исполнения,
+ * отменённого по истечении срока, клиенту уже не отправляются
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	request	Запрос
+ * @param	response	Ответ, считающий отправленные байты
+ * @param	params	Разобранный параметр params, либо null
+ * @param	deadline	Срок запроса, либо null
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private void dispatch(HandlerEntry entry, HttpServletRequest request, MeteredResponse response,
+			JSONObject params, AJAXDeadline deadline) throws IOException {
+		final AJAXHandler handler = entry.handler;
+		final AJAXDeadline previous = AJAXDeadline.bind(deadline);
+		PrintWriter out = null;
+		String etag;
+		AJAXRequest ajaxRequest = new AJAXRequest(request, handler);
+		AJAXResponse ajaxResponse = new AJAXResponse(response);
+		final long started = entry.metrics.begin();
+		Throwable failure = null;
+		boolean pending = false;
 
 		try {
-			handler.setParam("siteRoot", siteRoot);
 			switch (handler.getHandlerType()) {
 				case TEXT:
 					response.setContentType(handler.getContentType());
-					out = response.getWriter();
+					out = getWriter(handler, request, response);
 					handler.process(ajaxRequest, out);
 					out.close();
 					break;
@@ -132,7 +615,7 @@ public final class AJAX extends HttpServlet {
 						throw new AJAXExecuteException("No params object provided");
 					}
 					response.setContentType(handler.getContentType());
-					out = response.getWriter();
+					out = getWriter(handler, request, response);
 					handler.process(params, out);
 					out.close();
 					break;
@@ -144,59 +627,577 @@ public final class AJAX extends HttpServlet {
 					break;
 				case JSON_OUTPUT:
 					response.setContentType(handler.getContentType());
-					out = response.getWriter();
-					out.print(handler.process(ajaxRequest).toString());
-					out.close();
+					etag = getVersionETag(handler, request, ajaxRequest, null);
+					if (!isNotModified(handler, request, response, etag)) {
+						writeBody(handler, request, response, SerializedBody.of(handler.process(ajaxRequest)), etag);
+					}
 					break;
 				case JSON_IN_OUT:
 					if (params == null) {
 						throw new AJAXExecuteException("No params object provided");
 					}
 					response.setContentType(handler.getContentType());
-					out = response.getWriter();
-					out.print(handler.process(params).toString());
-					out.close();
+					etag = getVersionETag(handler, request, ajaxRequest, params);
+					if (!isNotModified(handler, request, response, etag)) {
+						writeBody(handler, request, response, execute(entry, params), etag);
+					}
+					break;
+				case JSON_ASYNC:
+					if (params == null) {
+						throw new AJAXExecuteException("No params object provided");
+					}
+					response.setContentType(handler.getContentType());
+					final CompletionStage<Object> result;
+					asyncRequest.set(request);
+					try {
+						result = handler.processAsync(params);
+					} finally {
+						asyncRequest.remove();
+					}
+					if (null == result) {
+						throw new AJAXExecuteException("Handler returned no result");
+					}
+					processAsync(entry, request, response, params, started, result, deadline);
+					pending = true;
+					break;
+				case JSON_STREAM:
+					if (params == null) {
+						throw new AJAXExecuteException("No params object provided");
+					}
+					response.setContentType(handler.getContentType());
+					JSONStreamWriter writer = new JSONStreamWriter(response.getOutputStream());
+					handler.process(params, writer);
+					writer.close();
+					break;
+				case EVENT_STREAM:
+					if (params == null) {
+						throw new AJAXExecuteException("No params object provided");
+					}
+					processEvents(entry, request, response, params, started, deadline);
+					pending = true;
 					break;
 			} // switch (handler.getHandlerType()) {
+		} catch (AJAXBusinessException ex) {
+			failure = ex;
+			if (!isAbandoned(entry, deadline, ex)) {
+				logger.debug("Ошибка прикладной логики AJAX-обработчика {}: {} ({})",
+					entry.index, ex.getLocalizedMessage(), ex.getCode());
+				if (!response.isCommitted()) {
+					response.setStatus(ex.getHttpStatus());
+				}
+				printError(handler, response, ex.toJSON());
+			}
 		} catch (AJAXExecuteException ex) {
-			logger.error("Ошибка исполнения AJAX-запроса", ex);
-			logger.debug("Request params:");
-			request.getParameterMap().entrySet().forEach(pair -> {
-				logger.debug(pair.getKey() + " = " + Arrays.toString(pair.getValue()));
-			});
-			logger.debug("Request headers:");
-			Enumeration<String> hdrNames = request.getHeaderNames();
-			while (hdrNames.hasMoreElements()) {
-				String hdrName = hdrNames.nextElement(), hdrValue = "";
-				Enumeration<String> hdrValues = request.getHeaders(hdrName);
-
-				while (hdrValues.hasMoreElements()) {
-					hdrValue += ("\n\t" + hdrValues.nextElement());
+			failure = ex;
+			if (!isAbandoned(entry, deadline, ex)) {
+				entry.failures.record(logger, entry.index, request, params, System.nanoTime() - started, ex);
+				printError(handler, response, ex.getLocalizedMessage());
+			}
+		} catch (RuntimeException ex) {
+			failure = ex;
+			if (!isAbandoned(entry, deadline, ex)) {
+				entry.failures.record(logger, entry.index, request, params, System.nanoTime() - started, ex);
+				printError(handler, response, ex.getLocalizedMessage());
+			}
+		} catch (IOException ex) {
+			failure = ex;
+			if (!isAbandoned(entry, deadline, ex)) {
+				throw ex;
+			}
+		} finally {
+			AJAXDeadline.bind(previous);
+			if (null != out && (null == deadline || !deadline.isCancelled())) {
+				// Накопленный до порога сжатия вывод отправляется и при ошибке обработчика
+				out.close();
+			}
+			if (!pending) {
+				response.finish();
+				entry.metrics.end(started, failure);
+				if (null != entry.limit) {
+					entry.limit.release();
 				}
-				logger.debug(hdrName + " =" + hdrValue);
 			}
+		}
+	}
+/**
+ * Было ли исполнение отменено по истечении срока: тогда клиенту уже отправлен ответ,
+ * а ошибка, которой завершился обработчик, лишь записывается в отладочный журнал
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	deadline	Срок запроса, либо null
+ * @param	th	Ошибка исполнения
+ * @return true, если исполнение было отменено
+ */
+	private static boolean isAbandoned(HandlerEntry entry, AJAXDeadline deadline, Throwable th) {
+		if (null == deadline || !deadline.isCancelled()) {
+			return false;
+		}
+		logger.debug("AJAX-обработчик " + entry.index + " завершился после истечения срока", th);
+		return true;
+	}
+/**
+ * Истечение срока вынесенного исполнения: исполнение отменяется, ответ отсоединяется
+ * от обработчика, и клиенту отправляется стандартное сообщение об ошибке для JSON-типов
+ * обработчиков, либо 504. Если обработчик уже начал отправку ответа, ответ просто завершается
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	bare	Исходный ответ контейнера
+ * @param	response	Ответ, которым пользуется обработчик
+ * @param	deadline	Истёкший срок запроса
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private static void expire(HandlerEntry entry, HttpServletResponse bare, MeteredResponse response,
+			AJAXDeadline deadline) throws IOException {
+		response.detach();
+		deadline.cancel();
+		entry.metrics.error("timeout");
+		if (bare.isCommitted()) {
+			logger.warn("Истёк срок исполнения AJAX-обработчика " + entry.index + ", ответ прерван");
+			return;
+		}
+		logger.warn("Истёк срок исполнения AJAX-обработчика " + entry.index);
+		bare.reset();
+		final String crossDomainAllowed = entry.handler.getCrossDomains();
+		if (crossDomainAllowed != null) {
+			bare.setHeader("Access-Control-Allow-Origin", crossDomainAllowed);
+		}
+		switch (entry.handler.getHandlerType()) {
+			case JSON_OUTPUT:
+			case JSON_IN_OUT:
+			case JSON_STREAM:
+				bare.setContentType(entry.handler.getContentType());
+				final OutputStream os = bare.getOutputStream();
+				os.write(CommonAJAXHandler.getErrorJSON("Request timed out").toString().getBytes(StandardCharsets.UTF_8));
+				os.close();
+				break;
+			default:
+				bare.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+		}
+	}
+/**
+ * Исполнение обработчика типа JSON_IN_OUT с сериализацией ответа. Ответ берётся из кэша,
+ * если обработчик кэшируемый, а одновременные одинаковые вызовы объединяются в одно исполнение,
+ * если обработчик это допускает; ключом в обоих случаях служат канонические параметры
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	params	Параметры обработчика
+ * @return Сериализованный ответ
+ * @throws	AJAXExecuteException	Работа AJAX-обработчика завершилась со сбоем
+ */
+	private SerializedBody execute(HandlerEntry entry, JSONObject params) throws AJAXExecuteException {
+		final AJAXHandler handler = entry.handler;
+		final ResponseCache.Loader loader = () -> SerializedBody.of(handler.process(params));
+		if (null == entry.cacheStats && null == entry.coalesced) {
+			return loader.load();
+		}
+		final String key = entry.index + '\u0000' + CanonicalParams.of(params, handler.getIgnoredParams());
+		final ResponseCache.Loader shared = null == entry.coalesced
+			? loader : () -> singleFlight.get(entry, key, loader);
+		return null == entry.cacheStats ? shared.load() : responseCache.get(entry, key, shared);
+	}
+/**
+ * Получение ETag по версии данных, заявленной обработчиком для GET-запроса
+ * @param	handler	AJAX-обработчик
+ * @param	request	Запрос
+ * @param	ajaxRequest	Класс-обёртка запроса для обработчика
+ * @param	params	Параметры обработчика, либо null
+ * @return ETag в кавычках, либо null, если запрос не GET или версия неизвестна
+ */
+	private static String getVersionETag(AJAXHandler handler, HttpServletRequest request,
+			AJAXRequest ajaxRequest, JSONObject params) {
+		if (!"GET".equals(request.getMethod())) {
+			return null;
+		}
+		final String version = handler.getVersion(ajaxRequest, params);
+		return null == version ? null : '"' + version.replace("\"", "") + '"';
+	}
+/**
+ * Проверка версии данных, заявленной обработчиком: если она совпадает с If-None-Match,
+ * клиенту отправляется 304 без вызова обработчика
+ * @param	handler	AJAX-обработчик
+ * @param	request	Запрос
+ * @param	response	Ответ
+ * @param	etag	ETag по версии данных, либо null
+ * @return true, если ответ 304 уже отправлен
+ */
+	private static boolean isNotModified(AJAXHandler handler, HttpServletRequest request,
+			HttpServletResponse response, String etag) {
+		if (null == etag || !SerializedBody.matches(request.getHeader("If-None-Match"), etag)) {
+			return false;
+		}
+		setValidators(handler, response, etag);
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		return true;
+	}
+/**
+ * Согласование сжатия ответа с клиентом. Если обработчик допускает сжатие, добавляется
+ * заголовок Vary: Accept-Encoding, т.к. ответ зависит от заголовка Accept-Encoding
+ * @param	handler	AJAX-обработчик
+ * @param	request	Запрос
+ * @param	response	Ответ
+ * @return Кодировка сжатия, либо null, если ответ не сжимается
+ */
+	private String negotiateCompression(AJAXHandler handler, HttpServletRequest request,
+			HttpServletResponse response) {
+		if (compressionMinSize < 0 || !handler.isCompressible()) {
+			return null;
+		}
+		response.addHeader("Vary", "Accept-Encoding");
+		return ResponseCompression.negotiate(request.getHeader("Accept-Encoding"));
+	}
+/**
+ * Печатаемый поток вывода ответа, сжимаемый при превышении порога compressionMinSize
+ * @param	handler	AJAX-обработчик
+ * @param	request	Запрос
+ * @param	response	Ответ с уже установленным типом содержимого
+ * @return PrintWriter печатаемый поток вывода ответа
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private PrintWriter getWriter(AJAXHandler handler, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		final String encoding = negotiateCompression(handler, request, response);
+		if (null == encoding) {
+			return response.getWriter();
+		}
+		return new PrintWriter(new OutputStreamWriter(
+			new ThresholdOutputStream(response, encoding, compressionMinSize), response.getCharacterEncoding()));
+	}
+/**
+ * Печать сериализованного ответа JSON-обработчика. Для GET-запросов устанавливаются ETag
+ * (по версии данных, либо вычисленный по содержимому) и Cache-Control обработчика,
+ * и при совпадении ETag с If-None-Match тело ответа не отправляется. Ответ не меньше
+ * compressionMinSize сжимается, а ETag сжатого представления получает суффикс кодировки
+ * @param	handler	AJAX-обработчик
+ * @param	request	Запрос
+ * @param	response	Ответ
+ * @param	body	Сериализованный ответ
+ * @param	etag	ETag по версии данных, либо null
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private void writeBody(AJAXHandler handler, HttpServletRequest request, HttpServletResponse response,
+			SerializedBody body, String etag) throws IOException {
+		final String encoding = negotiateCompression(handler, request, response);
+		final boolean compress = null != encoding && body.bytes.length >= compressionMinSize;
+		if ("GET".equals(request.getMethod())) {
+			if (null == etag) {
+				etag = body.etag();
+				if (SerializedBody.matches(request.getHeader("If-None-Match"), etag)) {
+					setValidators(handler, response, etag);
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+			}
+			setValidators(handler, response, compress ? SerializedBody.encodedETag(etag, encoding) : etag);
+		}
+		final byte[] bytes = compress ? body.encoded(encoding) : body.bytes;
+		if (compress) {
+			response.setHeader("Content-Encoding", encoding);
+		}
+		response.setContentLength(bytes.length);
+		final OutputStream os = response.getOutputStream();
+		os.write(bytes);
+		os.close();
+	}
+/**
+ * Установка заголовков ETag и Cache-Control успешного ответа
+ * @param	handler	AJAX-обработчик
+ * @param	response	Ответ
+ * @param	etag	ETag в кавычках
+ */
+	private static void setValidators(AJAXHandler handler, HttpServletResponse response, String etag) {
+		response.setHeader("ETag", etag);
+		final String cacheControl = handler.getCacheControl();
+		if (null != cacheControl) {
+			response.setHeader("Cache-Control", cacheControl);
+		}
+	}
+/**
+ * Печать стандартного сообщения об ошибке для JSON-типов обработчиков.
+ * Потоковый ответ заменяется сообщением об ошибке, только если клиенту ещё ничего не отправлено
+ * @param	handler	AJAX-обработчик
+ * @param	response	Ответ
+ * @param	message	Сообщение об ошибке
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private static void printError(AJAXHandler handler, HttpServletResponse response, String message)
+			throws IOException {
+		printError(handler, response, CommonAJAXHandler.getErrorJSON(message));
+	}
+/**
+ * Печать сообщения об ошибке для JSON-типов обработчиков
+ * @param	handler	AJAX-обработчик
+ * @param	response	Ответ
+ * @param	error	Сообщение об ошибке в стандартном формате
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private static void printError(AJAXHandler handler, HttpServletResponse response, JSONObject error)
+			throws IOException {
+		switch (handler.getHandlerType()) {
+			case JSON_OUTPUT:
+			case JSON_IN_OUT:
+			case JSON_ASYNC:
+				PrintWriter out = response.getWriter();
+				out.print(error);
+				out.close();
+				break;
+			case JSON_STREAM:
+				if (response.isCommitted()) {
+					logger.warn("Потоковый JSON-ответ прерван после начала отправки: " + error);
+				} else {
+					response.resetBuffer();
+					OutputStream os = response.getOutputStream();
+					os.write(error.toString().getBytes(StandardCharsets.UTF_8));
+					os.close();
+				}
+				break;
+			default:
+		}
+	}
 
-			switch (handler.getHandlerType()) {
-				case JSON_OUTPUT:
-				case JSON_IN_OUT:
-					out = response.getWriter();
-					out.print(CommonAJAXHandler.getErrorJSON(ex.getLocalizedMessage()));
-					out.close();
-					break;
-				default:
+/**
+ * Переводит запрос в асинхронный режим и исполняет обработчик вне потока контейнера,
+ * соблюдая ограничение параллельности обработчика (если оно задано). Ожидание допуска
+ * по ограничению limit.module.action также происходит вне потока контейнера.
+ * Запрос со сроком исполняется так всегда: по истечении срока ответ отправляет контейнер
+ * (время ожидания асинхронного режима равно оставшемуся сроку), а поток обработчика прерывается
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	request	Запрос
+ * @param	response	Ответ
+ * @param	params	Разобранный параметр params, либо null
+ * @param	deadline	Срок запроса, либо null
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private void offload(HandlerEntry entry, HttpServletRequest request, HttpServletResponse response,
+			JSONObject params, AJAXDeadline deadline) throws IOException {
+		final long queued = System.nanoTime();
+		final MeteredResponse metered = new MeteredResponse(response, entry.metrics);
+		final AsyncContext async = request.startAsync();
+		async.setTimeout(null == deadline ? 0 : Math.max(1, deadline.getRemainingMillis()));
+		final AsyncCompletion completion = new AsyncCompletion(async,
+			context -> expire(entry, response, metered, deadline), null);
+		try {
+			offloadExecutor.execute(() -> {
+				if (null != deadline) {
+					deadline.setWorker(Thread.currentThread());
+				}
+				try {
+					if (!admit(entry, metered)) {
+						return;
+					}
+					final Runnable task = () -> {
+						try {
+							dispatch(entry, request, metered, params, deadline);
+						} catch (IOException ex) {
+							throw new UncheckedIOException(ex);
+						}
+					};
+					if (null == entry.offload) {
+						task.run();
+					} else {
+						entry.offload.run(queued, task);
+					}
+				} catch (IOException ex) {
+					logger.warn("Не удалось отклонить вызов AJAX-обработчика " + entry.index, ex);
+				} catch (InterruptedException ex) {
+					logger.warn("Ожидание исполнения AJAX-обработчика " + entry.index + " прервано");
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException ex) {
+					if (!isAbandoned(entry, deadline, ex)) {
+						logger.error("Ошибка вынесенного исполнения AJAX-обработчика " + entry.index, ex);
+					}
+				} finally {
+					if (null != deadline) {
+						deadline.setWorker(null);
+					}
+					try {
+						completion.finish(context -> {});
+					} catch (IOException ex) {
+						logger.debug("Не удалось завершить асинхронный AJAX-запрос", ex);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			logger.warn("Вынесенное исполнение AJAX-обработчика " + entry.index + " отклонено", ex);
+			completion.finish(context -> response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+		}
+	}
+/**
+ * Переводит запрос в асинхронный режим и печатает ответ по завершении результата обработчика.
+ * Если результат не получен до истечения времени ожидания контейнера, печатается сообщение об ошибке.
+ * Исполнение учитывается в метриках обработчика в момент печати ответа, а разрешение ограничения
+ * допуска возвращается по завершении асинхронного режима (в том числе при обрыве соединения).
+ * Если у запроса есть срок, время ожидания равно оставшемуся сроку, а по его истечении
+ * обработчику сигнализируется отмена, и его результат отменяется
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	request	Запрос, переводимый в асинхронный режим
+ * @param	response	Ответ
+ * @param	params	Параметры обработчика (сохраняются в буфере неудачных вызовов)
+ * @param	started	Момент начала исполнения для метрик
+ * @param	result	Отложенный результат обработчика
+ * @param	deadline	Срок запроса, либо null
+ */
+	private void processAsync(HandlerEntry entry, HttpServletRequest request, HttpServletResponse response,
+			JSONObject params, long started, CompletionStage<Object> result, AJAXDeadline deadline) {
+		final AsyncContext context = request.startAsync(request, response);
+		if (null != deadline) {
+			context.setTimeout(Math.max(1, deadline.getRemainingMillis()));
+		}
+		final AsyncCompletion completion = new AsyncCompletion(context, async -> {
+			entry.metrics.end(started, null);
+			entry.metrics.error("timeout");
+			logger.error("Превышено время ожидания асинхронного AJAX-запроса");
+			if (null != deadline) {
+				deadline.cancel();
+				result.toCompletableFuture().cancel(true);
 			}
-		} catch (RuntimeException ex) {
-			logger.error("Unhandled exception", ex);
-			switch (handler.getHandlerType()) {
-				case JSON_OUTPUT:
-				case JSON_IN_OUT:
-					out = response.getWriter();
-					out.print(CommonAJAXHandler.getErrorJSON(ex.getLocalizedMessage()));
-					out.close();
-					break;
-				default:
+			printJSON(async, CommonAJAXHandler.getErrorJSON("Request timed out"));
+		}, null == entry.limit ? null : entry.limit::release);
+		result.whenComplete((value, th) -> {
+			try {
+				completion.finish(async -> {
+					entry.metrics.end(started, null == th ? null
+						: th instanceof CompletionException && th.getCause() != null ? th.getCause() : th);
+					if (null == th) {
+						printJSON(async, value);
+					} else {
+						final Throwable cause = th instanceof CompletionException && th.getCause() != null
+							? th.getCause() : th;
+						if (cause instanceof AJAXBusinessException) {
+							final AJAXBusinessException error = (AJAXBusinessException)cause;
+							logger.debug("Ошибка прикладной логики AJAX-обработчика {}: {} ({})",
+								entry.index, error.getLocalizedMessage(), error.getCode());
+							((HttpServletResponse)async.getResponse()).setStatus(error.getHttpStatus());
+							printJSON(async, error.toJSON());
+						} else {
+							entry.failures.record(logger, entry.index, request, params, System.nanoTime() - started, cause);
+							printJSON(async, CommonAJAXHandler.getErrorJSON(cause.getLocalizedMessage()));
+						}
+					}
+				});
+			} catch (IOException | RuntimeException ex) {
+				logger.error("Не удалось завершить асинхронный AJAX-запрос", ex);
+			}
+		});
+	}
+/**
+ * Открытие потока событий Server-Sent Events и вызов обработчика типа EVENT_STREAM. Поток контейнера
+ * освобождается; время ожидания асинхронного режима не ограничено, если у запроса нет срока
+ * (отключение клиента обнаруживается пульсами), иначе равно оставшемуся сроку. По закрытию потока
+ * событий учитывается длительность, возвращается разрешение ограничения и отменяется срок запроса.
+ * Ошибка, которой обработчик завершился до закрытия потока, отправляется клиенту событием error
+ * @param	entry	Запись реестра AJAX-обработчика
+ * @param	request	Запрос, переводимый в асинхронный режим
+ * @param	response	Ответ
+ * @param	params	Параметры обработчика
+ * @param	started	Момент начала исполнения для метрик
+ * @param	deadline	Срок запроса, либо null
+ * @throws	IOException	Не удалось открыть поток событий
+ */
+	private void processEvents(HandlerEntry entry, HttpServletRequest request, HttpServletResponse response,
+			JSONObject params, long started, AJAXDeadline deadline) throws IOException {
+		response.setContentType(entry.handler.getContentType());
+		response.setHeader("Cache-Control", "no-cache");
+		response.setHeader("X-Accel-Buffering", "no");
+		final AsyncContext context = request.startAsync(request, response);
+		context.setTimeout(null == deadline ? 0 : Math.max(1, deadline.getRemainingMillis()));
+		final AJAXEventEmitter events = new AJAXEventEmitter(context);
+		events.onClose(() -> {
+			entry.metrics.end(started, null);
+			if (null != entry.limit) {
+				entry.limit.release();
+			}
+			if (null != deadline) {
+				deadline.cancel();
+			}
+		});
+		eventStreams.register(events);
+		try {
+			entry.handler.process(params, events);
+		} catch (AJAXBusinessException ex) {
+			entry.metrics.error(ex.getClass().getName());
+			logger.debug("Ошибка прикладной логики AJAX-обработчика {}: {} ({})",
+				entry.index, ex.getLocalizedMessage(), ex.getCode());
+			try {
+				events.send(AJAXEventEmitter.ERROR, ex.toJSON());
+			} catch (IOException sendEx) {
+				logger.debug("Не удалось отправить событие ошибки", sendEx);
+			} finally {
+				events.complete();
+			}
+		} catch (AJAXExecuteException | RuntimeException ex) {
+			entry.metrics.error(ex.getClass().getName());
+			entry.failures.record(logger, entry.index, request, params, System.nanoTime() - started, ex);
+			events.completeWithError(ex.getLocalizedMessage());
+		}
+	}
+/**
+ * Печатает объект ответа в асинхронный контекст
+ * @param	async	Асинхронный контекст запроса
+ * @param	value	Объект, печатаемый в выходной поток ответа
+ * @throws	IOException	Обнаружена ошибка ввода-вывода
+ */
+	private static void printJSON(AsyncContext async, Object value) throws IOException {
+		final PrintWriter out = async.getResponse().getWriter();
+		out.print(String.valueOf(value));
+		out.close();
+	}
+
+/**
+ * Сборка контекста обработчиков: корень приложения, параметры сервлета
+ * и атрибуты контекста сервлета, зарегистрированные к моменту его инициализации.
+ * Концентратор тем добавляется в контекст обработчиков и в атрибуты контекста сервлета
+ * @param	sconf	Конфигурация сервлета
+ * @param	topics	Концентратор тем
+ * @return Неизменяемый контекст
+ */
+	private static AJAXContext createContext(ServletConfig sconf, AJAXTopics topics) {
+		final ServletContext servletContext = sconf.getServletContext();
+		servletContext.setAttribute(AJAXTopics.ATTRIBUTE, topics);
+		final Map<String, String> initParameters = new HashMap<>();
+		for (Enumeration<String> names = sconf.getInitParameterNames(); names.hasMoreElements();) {
+			final String name = names.nextElement();
+			initParameters.put(name, sconf.getInitParameter(name));
+		}
+		final Map<String, Object> attributes = new HashMap<>();
+		for (Enumeration<String> names = servletContext.getAttributeNames(); names.hasMoreElements();) {
+			final String name = names.nextElement();
+			attributes.put(name, servletContext.getAttribute(name));
+		}
+		return new AJAXContext(servletContext.getRealPath("/"), initParameters, attributes);
+	}
+/**
+ * Получение списка значений параметра сервлета, перечисленных через запятую
+ * @param	sconf	Конфигурация сервлета
+ * @param	name	Имя параметра
+ * @return Множество непустых значений
+ */
+	private static Set<String> getListParameter(ServletConfig sconf, String name) {
+		final String value = sconf.getInitParameter(name);
+		final Set<String> result = new HashSet<>();
+		if (null != value) {
+			for (String item : value.split(",")) {
+				if (!item.trim().isEmpty()) {
+					result.add(item.trim());
+				}
 			}
 		}
+		return Collections.unmodifiableSet(result);
+	}
+/**
+ * Получение целочисленного параметра сервлета
+ * @param	sconf	Конфигурация сервлета
+ * @param	name	Имя параметра
+ * @param	defaultValue	Значение по умолчанию
+ * @return Значение параметра, либо значение по умолчанию, если параметр не задан или некорректен
+ */
+	private static int getIntParameter(ServletConfig sconf, String name, int defaultValue) {
+		final String value = sconf.getInitParameter(name);
+		if (null == value) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException ex) {
+			logger.warn("Некорректное значение параметра сервлета " + name + ": " + value, ex);
+			return defaultValue;
+		}
 	}
 
 	// <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
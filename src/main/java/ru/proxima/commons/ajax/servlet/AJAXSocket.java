@@ -0,0 +1,206 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletContext;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.proxima.commons.ajax.CommonAJAXHandler;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONException;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Транспорт WebSocket для вызова тех же AJAX-обработчиков, что и через сервлет, без накладных
+ * расходов HTTP-запроса на каждый вызов. Клиент отправляет текстовые сообщения с вызовом
+ * {id, module, action, params}, либо с массивом таких вызовов; каждый вызов получает отдельный
+ * ответ {id, result} по мере готовности, поэтому ответы могут приходить не в порядке вызовов,
+ * а идентификатор id служит для их сопоставления. Вызовы исполняются в пуле пакетных вызовов
+ * сервлета, поэтому поддерживаются те же типы обработчиков (JSON_IN_OUT и JSON_INPUT)
+ * и действуют те же ограничения допуска; неудачный вызов получает в result стандартное сообщение
+ * об ошибке. Число одновременно исполняемых вызовов одного соединения не превышает допустимого
+ * размера пакета (параметр сервлета batchMaxSize). Ответы отправляются асинхронно из очереди
+ * соединения, по одному, поэтому медленный клиент не занимает потоки пула пакетных вызовов;
+ * если клиент не читает ответы и их очередь переполняется, соединение закрывается. Адрес клиента в JSR 356 недоступен,
+ * поэтому параметр remoteAddr обработчикам не передаётся. Транспорт не развёртывается сам
+ * по себе: сервлет регистрирует его при инициализации, только если задан параметр сервлета
+ * webSocketPath (путь транспорта в приложении, например /AJAX/ws)
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class AJAXSocket extends Endpoint {
+/**
+ * Допустимый размер сообщения клиента в байтах
+ */
+	private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+/**
+ * Наибольшее число ответов соединения, ожидающих отправки
+ */
+	private static final int MAX_QUEUED = 1024;
+
+	private static final Logger logger = LoggerFactory.getLogger(AJAXSocket.class);
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+/**
+ * Очередь ответов, ожидающих отправки, и признак отправки одного из них
+ */
+	private final ConcurrentLinkedQueue<String> outbox = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicBoolean sending = new AtomicBoolean();
+/**
+ * Регистрация транспорта в контейнере WebSocket. Контейнер допускает регистрацию только
+ * до первого соединения, поэтому сервлет должен инициализироваться при запуске приложения
+ * (load-on-startup)
+ * @param servletContext Контекст сервлета
+ * @param path Путь транспорта в приложении
+ */
+	static void deploy(ServletContext servletContext, String path) {
+		final ServerContainer container = (ServerContainer)servletContext.getAttribute(ServerContainer.class.getName());
+		if (null == container) {
+			logger.warn("Контейнер не поддерживает WebSocket, транспорт {} не развёрнут", path);
+			return;
+		}
+		try {
+			container.addEndpoint(ServerEndpointConfig.Builder.create(AJAXSocket.class, path).build());
+		} catch (DeploymentException | IllegalStateException ex) {
+			logger.error("Не удалось развернуть транспорт WebSocket " + path, ex);
+		}
+	}
+
+	@Override public void onOpen(Session session, EndpointConfig config) {
+		session.setMaxTextMessageBufferSize(MAX_MESSAGE_SIZE);
+		session.addMessageHandler(new MessageHandler.Whole<String>() {
+			@Override public void onMessage(String message) {
+				AJAXSocket.this.onMessage(session, message);
+			}
+		});
+	}
+
+	private void onMessage(Session session, String message) {
+		final BatchProcessor processor = AJAX.getBatchProcessor();
+		if (null == processor) {
+			close(session, CloseReason.CloseCodes.TRY_AGAIN_LATER, "AJAX servlet is not initialized");
+			return;
+		}
+		try {
+			final String text = message.trim();
+			if (text.startsWith("[")) {
+				final JSONArray calls = new JSONArray(text);
+				for (int i = 0; i < calls.length(); i++) {
+					invoke(session, processor, calls.optJSONObject(i));
+				}
+			} else {
+				invoke(session, processor, new JSONObject(text));
+			}
+		} catch (JSONException ex) {
+			logger.warn("Не удалось прочитать вызов AJAX-обработчика через WebSocket", ex);
+			send(session, null, CommonAJAXHandler.getErrorJSON("Malformed call"));
+		}
+	}
+
+	@Override public void onError(Session session, Throwable th) {
+		logger.debug("Ошибка соединения WebSocket " + session.getId(), th);
+	}
+
+	@Override public void onClose(Session session, CloseReason reason) {
+		logger.debug("Соединение WebSocket {} закрыто: {}", session.getId(), reason.getReasonPhrase());
+		flush(session);
+	}
+/**
+ * Передача вызова в пул пакетных вызовов с отправкой ответа по его завершении
+ * @param session Соединение
+ * @param processor Исполнитель пакетных вызовов
+ * @param call Объект {id, module, action, params}, либо null для некорректного элемента массива
+ */
+	private void invoke(Session session, BatchProcessor processor, JSONObject call) {
+		final Object id = null == call ? null : call.opt("id");
+		if (inFlight.incrementAndGet() > processor.maxSize) {
+			inFlight.decrementAndGet();
+			send(session, id, CommonAJAXHandler.getErrorJSON("Too many calls in flight"));
+			return;
+		}
+		processor.submit(call, null).whenComplete((result, th) -> {
+			inFlight.decrementAndGet();
+			if (null == th) {
+				send(session, id, result);
+			} else {
+				// Ошибки обработчиков уже переведены в сообщения; прочие сбои клиенту не раскрываются
+				logger.error("Сбой исполнения вызова AJAX-обработчика через WebSocket", th);
+				send(session, id, CommonAJAXHandler.getErrorJSON("Internal error"));
+			}
+		});
+	}
+/**
+ * Постановка ответа на вызов в очередь отправки соединения. Переполнение очереди означает,
+ * что клиент не читает ответы: соединение закрывается
+ * @param session Соединение
+ * @param id Идентификатор вызова, либо null
+ * @param result Результат обработчика, либо сообщение об ошибке
+ */
+	private void send(Session session, Object id, Object result) {
+		final String text = new JSONObject()
+			.put("id", null == id ? JSONObject.NULL : id)
+			.put("result", null == result ? JSONObject.NULL : result)
+			.toString();
+		if (queued.incrementAndGet() > MAX_QUEUED) {
+			queued.decrementAndGet();
+			logger.warn("Клиент WebSocket {} не читает ответы, соединение закрывается", session.getId());
+			close(session, CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too many unsent responses");
+			return;
+		}
+		outbox.add(text);
+		flush(session);
+	}
+/**
+ * Отправка следующего ответа из очереди, если ни один ответ не отправляется. Поток не ждёт
+ * клиента: следующий ответ отправляется по завершении предыдущего. Ответы закрытого
+ * соединения отбрасываются
+ * @param session Соединение
+ */
+	private void flush(Session session) {
+		while (sending.compareAndSet(false, true)) {
+			final String text = outbox.poll();
+			if (null == text) {
+				sending.set(false);
+				if (outbox.isEmpty()) {
+					return;
+				}
+				continue;
+			}
+			queued.decrementAndGet();
+			if (session.isOpen()) {
+				try {
+					session.getAsyncRemote().sendText(text, result -> {
+						if (!result.isOK()) {
+							logger.debug("Не удалось отправить ответ через WebSocket " + session.getId(),
+								result.getException());
+						}
+						sending.set(false);
+						flush(session);
+					});
+					return;
+				} catch (IllegalStateException ex) {
+					logger.debug("Не удалось отправить ответ через WebSocket " + session.getId(), ex);
+				}
+			}
+			sending.set(false);
+		}
+	}
+
+	private static void close(Session session, CloseReason.CloseCode code, String reason) {
+		try {
+			session.close(new CloseReason(code, reason));
+		} catch (IOException ex) {
+			logger.debug("Не удалось закрыть соединение WebSocket " + session.getId(), ex);
+		}
+	}
+
+}
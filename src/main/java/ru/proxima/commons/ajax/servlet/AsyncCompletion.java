@@ -0,0 +1,68 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+/**
+ * Завершение асинхронного ответа ровно один раз: либо результатом обработчика,
+ * либо по истечении времени ожидания контейнера - смотря что наступит раньше.
+ * По завершении асинхронного режима по любой причине исполняется заданное действие
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class AsyncCompletion implements AsyncListener {
+/**
+ * Действие, печатающее ответ в асинхронный контекст
+ */
+	interface Writer {
+		void write(AsyncContext async) throws IOException;
+	}
+
+	private final AtomicBoolean finished = new AtomicBoolean();
+	private final AsyncContext async;
+	private final Writer onTimeout;
+	private final Runnable onComplete;
+
+	AsyncCompletion(AsyncContext async, Writer onTimeout, Runnable onComplete) {
+		this.async = async;
+		this.onTimeout = onTimeout;
+		this.onComplete = onComplete;
+		async.addListener(this);
+	}
+/**
+ * Печатает ответ и завершает асинхронный контекст, если этого ещё никто не сделал
+ * @param writer Действие, печатающее ответ
+ * @return false, если ответ уже был завершён ранее
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ */
+	boolean finish(Writer writer) throws IOException {
+		if (!finished.compareAndSet(false, true)) {
+			return false;
+		}
+		try {
+			writer.write(async);
+		} finally {
+			async.complete();
+		}
+		return true;
+	}
+
+	@Override public void onTimeout(AsyncEvent event) throws IOException {
+		finish(onTimeout);
+	}
+
+	@Override public void onError(AsyncEvent event) {
+		finished.set(true);
+	}
+
+	@Override public void onComplete(AsyncEvent event) {
+		finished.set(true);
+		if (null != onComplete) {
+			onComplete.run();
+		}
+	}
+
+	@Override public void onStartAsync(AsyncEvent event) {}
+
+}
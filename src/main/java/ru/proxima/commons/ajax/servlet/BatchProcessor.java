@@ -0,0 +1,203 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.proxima.commons.ajax.AJAXBusinessException;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXHandler;
+import ru.proxima.commons.ajax.CommonAJAXHandler;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONException;
+import ru.proxima.commons.json.JSONObject;
+import ru.proxima.commons.json.JSONTokener;
+/**
+ * Пакетное исполнение нескольких вызовов module.action за один HTTP-запрос. Независимые вызовы
+ * исполняются параллельно в ограниченном пуле; при его переполнении вызов исполняется
+ * в потоке запроса. Поддерживаются обработчики типов JSON_IN_OUT и JSON_INPUT. Ограничения
+ * допуска обработчиков действуют и для вызовов пакета: отклонённый вызов получает сообщение об ошибке
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class BatchProcessor {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchProcessor.class);
+
+	private final ThreadPoolExecutor executor;
+	final int maxSize;
+/**
+ * Конструктор
+ * @param threads Число потоков пула
+ * @param maxSize Допустимое число вызовов в одном пакете
+ */
+	BatchProcessor(int threads, int maxSize) {
+		this.maxSize = maxSize;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<>(threads * 4), new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger();
+				@Override public Thread newThread(Runnable task) {
+					final Thread thread = new Thread(task, "ajax-batch-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, BatchProcessor::rejected);
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+/**
+ * Исполнение вызова в потоке запроса при переполнении пула. После остановки пула
+ * вызов отклоняется исключением, а не отбрасывается молча, как в CallerRunsPolicy,
+ * иначе ожидание его результата не завершилось бы никогда
+ */
+	private static void rejected(Runnable task, ThreadPoolExecutor pool) {
+		if (pool.isShutdown()) {
+			throw new RejectedExecutionException("Batch pool is shut down");
+		}
+		task.run();
+	}
+/**
+ * Исполнение пакета вызовов
+ * @param calls Массив объектов {module, action, params}
+ * @param remoteAddr Адрес клиента, добавляемый в параметры каждого вызова
+ * @return Массив результатов в порядке вызовов; неудачный вызов представлен стандартным сообщением об ошибке
+ */
+	JSONArray execute(JSONArray calls, String remoteAddr) {
+		final List<Future<Object>> futures = new ArrayList<>(calls.length());
+		for (int i = 0; i < calls.length(); i++) {
+			final JSONObject call = calls.optJSONObject(i);
+			try {
+				futures.add(executor.submit(() -> invoke(call, remoteAddr)));
+			} catch (RejectedExecutionException ex) {
+				futures.add(CompletableFuture.completedFuture(CommonAJAXHandler.getErrorJSON("Service is shutting down")));
+			}
+		}
+
+		final JSONArray results = new JSONArray();
+		for (Future<Object> future : futures) {
+			try {
+				results.put(future.get());
+			} catch (ExecutionException ex) {
+				results.put(CommonAJAXHandler.getErrorJSON(ex.getCause().getLocalizedMessage()));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				results.put(CommonAJAXHandler.getErrorJSON("Batch execution interrupted"));
+			}
+		}
+		return results;
+	}
+
+/**
+ * Асинхронное исполнение одного вызова в пуле пакетных вызовов (используется транспортом WebSocket).
+ * При переполнении пула вызов исполняется в вызывающем потоке, что сдерживает чтение новых вызовов
+ * @param call Объект {module, action, params}
+ * @param remoteAddr Адрес клиента, либо null, если он неизвестен
+ * @return Отложенный результат обработчика, либо стандартное сообщение об ошибке
+ */
+	CompletableFuture<Object> submit(JSONObject call, String remoteAddr) {
+		try {
+			return CompletableFuture.supplyAsync(() -> invoke(call, remoteAddr), executor);
+		} catch (RejectedExecutionException ex) {
+			return CompletableFuture.completedFuture(CommonAJAXHandler.getErrorJSON("Service is shutting down"));
+		}
+	}
+
+	void shutdown() {
+		executor.shutdown();
+	}
+/**
+ * Исполнение одного вызова пакета
+ * @param call Объект {module, action, params}
+ * @param remoteAddr Адрес клиента
+ * @return Результат обработчика, либо стандартное сообщение об ошибке
+ */
+	private Object invoke(JSONObject call, String remoteAddr) {
+		if (null == call) {
+			return CommonAJAXHandler.getErrorJSON("Batch entry is not an object");
+		}
+		final HandlerEntry entry;
+		try {
+			entry = AJAX.getEntry(call.optString("action", null), call.optString("module", null));
+		} catch (UnsupportedOperationException ex) {
+			logger.warn("Обращение к несуществующему обработчику", ex);
+			return CommonAJAXHandler.getErrorJSON(ex.getLocalizedMessage());
+		} catch (IllegalStateException ex) {
+			logger.error(ex.getMessage(), ex.getCause());
+			return CommonAJAXHandler.getErrorJSON(ex.getLocalizedMessage());
+		}
+
+		final long retryAfter = null == entry.limit ? HandlerLimit.ADMITTED : entry.limit.acquire();
+		if (HandlerLimit.ADMITTED != retryAfter) {
+			entry.metrics.error("rejected");
+			return CommonAJAXHandler.getErrorJSON("Service temporarily unavailable, retry after "
+				+ retryAfter + " s");
+		}
+
+		final AJAXHandler handler = entry.handler;
+		final JSONObject params = call.optJSONObject("params");
+		final long started = entry.metrics.begin();
+		Throwable failure = null;
+		try {
+			if (null == params) {
+				throw new AJAXExecuteException("No params object provided");
+			}
+			try {
+				params.putOnce("remoteAddr", remoteAddr);
+			} catch (JSONException ex) {
+				logger.debug("Параметр remoteAddr уже присутствует", ex);
+			}
+			switch (handler.getHandlerType()) {
+				case JSON_IN_OUT:
+					return handler.process(params);
+				case JSON_INPUT:
+					final StringWriter buffer = new StringWriter();
+					try (PrintWriter out = new PrintWriter(buffer)) {
+						handler.process(params, out);
+					}
+					return parseOutput(buffer.toString());
+				default:
+					return CommonAJAXHandler.getErrorJSON("Handler type " + handler.getHandlerType()
+						+ " is not supported in batch");
+			}
+		} catch (AJAXBusinessException ex) {
+			failure = ex;
+			logger.debug("Ошибка прикладной логики AJAX-обработчика {}: {} ({})",
+				entry.index, ex.getLocalizedMessage(), ex.getCode());
+			return ex.toJSON();
+		} catch (AJAXExecuteException ex) {
+			failure = ex;
+			entry.failures.record(logger, entry.index, null, params, System.nanoTime() - started, ex);
+			return CommonAJAXHandler.getErrorJSON(ex.getLocalizedMessage());
+		} catch (RuntimeException ex) {
+			failure = ex;
+			entry.failures.record(logger, entry.index, null, params, System.nanoTime() - started, ex);
+			return CommonAJAXHandler.getErrorJSON(ex.getLocalizedMessage());
+		} finally {
+			entry.metrics.end(started, failure);
+			if (null != entry.limit) {
+				entry.limit.release();
+			}
+		}
+	}
+/**
+ * Разбор ответа, напечатанного обработчиком типа JSON_INPUT, чтобы он вошёл в массив результатов
+ * JSON-значением, а не строкой
+ * @param output Напечатанный ответ
+ * @return JSONObject, JSONArray или простое значение; JSONObject.NULL, если ничего не напечатано
+ * @throws JSONException Напечатан некорректный JSON
+ */
+	private static Object parseOutput(String output) throws JSONException {
+		final String text = output.trim();
+		return text.isEmpty() ? JSONObject.NULL : new JSONTokener(text).nextValue();
+	}
+
+}
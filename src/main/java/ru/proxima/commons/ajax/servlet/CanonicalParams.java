@@ -0,0 +1,71 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Каноническое строковое представление параметров обработчика для использования в качестве ключа:
+ * свойства объектов упорядочены по имени на всех уровнях вложенности, поэтому одинаковые
+ * по содержанию параметры дают одинаковый ключ независимо от порядка свойств
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class CanonicalParams {
+
+	private CanonicalParams() {}
+/**
+ * Построение канонического представления параметров
+ * @param params Параметры обработчика
+ * @param excluded Имена свойств верхнего уровня, не влияющие на результат (например, remoteAddr)
+ * @return Каноническая строка
+ */
+	static String of(JSONObject params, Collection<String> excluded) {
+		final StringBuilder sb = new StringBuilder(64);
+		appendObject(sb, params, excluded);
+		return sb.toString();
+	}
+
+	private static void appendObject(StringBuilder sb, JSONObject object, Collection<String> excluded) {
+		final List<String> names = new ArrayList<>(object.length());
+		for (Iterator<String> keys = object.keys(); keys.hasNext();) {
+			final String name = keys.next();
+			if (!excluded.contains(name)) {
+				names.add(name);
+			}
+		}
+		Collections.sort(names);
+		sb.append('{');
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(JSONObject.quote(names.get(i))).append(':');
+			appendValue(sb, object.opt(names.get(i)));
+		}
+		sb.append('}');
+	}
+
+	private static void appendValue(StringBuilder sb, Object value) {
+		if (value instanceof JSONObject) {
+			appendObject(sb, (JSONObject)value, Collections.<String>emptySet());
+		} else if (value instanceof JSONArray) {
+			final JSONArray array = (JSONArray)value;
+			sb.append('[');
+			for (int i = 0; i < array.length(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				appendValue(sb, array.opt(i));
+			}
+			sb.append(']');
+		} else if (value instanceof String) {
+			sb.append(JSONObject.quote((String)value));
+		} else {
+			sb.append(value);
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package ru.proxima.commons.ajax.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+import ru.proxima.commons.ajax.AJAXBusinessException;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXRequest;
+import ru.proxima.commons.ajax.impl.AJAXHandlerRaw;
+/**
+ * Основа встроенных диагностических обработчиков модуля core. Такой обработчик не регистрируется
+ * по META-INF/services: сервлет регистрирует его, только если задан параметр сервлета с именем роли
+ * его пользователей, и отвечает он лишь пользователям этой роли
+ * ({@link HttpServletRequest#isUserInRole(String)}, роль ** - любой аутентифицированный пользователь).
+ * Остальные получают ошибку diagnostics_forbidden с кодом ответа 403
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+abstract class DiagnosticHandler extends AJAXHandlerRaw {
+/**
+ * Ошибка обращения пользователя без роли диагностики
+ */
+	private static final AJAXBusinessException FORBIDDEN = new AJAXBusinessException("diagnostics_forbidden",
+		"Access to diagnostics is not allowed", false, 403);
+
+	private final String roleParameter;
+	private String role;
+/**
+ * Конструктор
+ * @param roleParameter Имя параметра сервлета с ролью пользователей обработчика
+ */
+	DiagnosticHandler(String roleParameter) {
+		this.roleParameter = roleParameter;
+	}
+
+	@Override protected void init() throws AJAXExecuteException {
+		final String value = getContext().getInitParameter(roleParameter);
+		if (null == value || value.trim().isEmpty()) {
+			throw new AJAXExecuteException("Не задан параметр сервлета " + roleParameter);
+		}
+		role = value.trim();
+	}
+/**
+ * Проверка права пользователя на просмотр диагностики
+ * @param request Запрос
+ * @throws AJAXBusinessException Пользователь не входит в роль диагностики
+ */
+	final void authorize(AJAXRequest request) throws AJAXBusinessException {
+		if (!request.bare().isUserInRole(role)) {
+			throw FORBIDDEN;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import ru.proxima.commons.ajax.AJAXEventEmitter;
+/**
+ * Открытые потоки событий Server-Sent Events и отправка им пульсов: каждый поток, простаивающий
+ * дольше заданного интервала, получает пустое событие-комментарий. Пульс не даёт промежуточным
+ * узлам закрыть соединение по неактивности, а отключение клиента обнаруживается ошибкой записи
+ * пульса, после чего поток закрывается и обработчик узнаёт об этом через onClose. Единственный поток
+ * пульсов не ждёт потоки событий, в которые идёт запись, а пропускает их до следующего пульса
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class EventStreams {
+
+	private final Set<AJAXEventEmitter> open = ConcurrentHashMap.newKeySet();
+	private final long heartbeatMillis;
+	private final ScheduledExecutorService scheduler;
+/**
+ * Конструктор
+ * @param heartbeatMillis Интервал пульсов в миллисекундах; 0 и меньше - пульсы не отправляются
+ */
+	EventStreams(long heartbeatMillis) {
+		this.heartbeatMillis = heartbeatMillis;
+		if (heartbeatMillis <= 0) {
+			this.scheduler = null;
+			return;
+		}
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			final Thread thread = new Thread(task, "ajax-event-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::beat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+	}
+/**
+ * Учёт открытого потока событий до его закрытия
+ * @param events Поток событий
+ */
+	void register(AJAXEventEmitter events) {
+		open.add(events);
+		events.onClose(() -> open.remove(events));
+	}
+/**
+ * Число открытых потоков событий
+ * @return Количество потоков
+ */
+	int size() {
+		return open.size();
+	}
+
+	void shutdown() {
+		if (null != scheduler) {
+			scheduler.shutdownNow();
+		}
+		open.forEach(AJAXEventEmitter::complete);
+	}
+
+	private void beat() {
+		open.forEach(events -> events.heartbeat(heartbeatMillis));
+	}
+
+}
@@ -0,0 +1,246 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import ru.proxima.commons.ajax.AJAXContext;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Последние неудачные вызовы одного AJAX-обработчика в кольцевом буфере фиксированного размера
+ * (запись без блокировок) и ограничение частоты журналирования ошибок. При сбое сохраняются лишь
+ * ссылки и копии коллекций запроса; текстовое представление строится только при просмотре
+ * (встроенный обработчик core.Failures). Сведения о запросе (метод, адрес клиента, параметры
+ * и заголовки) сохраняются, только если core.Failures включён параметром сервлета failuresRole;
+ * иначе сохраняются лишь длительность и исключение. Сохраняются только заголовки из перечня
+ * failureHeaders (по умолчанию {@link #DEFAULT_HEADERS}), т.к. в прочих могут быть ключи доступа
+ * и адреса клиентов. Значения параметров запроса и обработчика при просмотре не выдаются,
+ * только их имена и размеры, т.к. в них могут быть персональные данные и пароли.
+ * В журнал попадают не более {@link #LOG_BURST} ошибок обработчика за {@link #LOG_WINDOW_SECONDS}
+ * секунд, сверх этого - лишь каждая {@link #LOG_SAMPLE}-я; о пропущенных сообщается одной строкой
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class FailureLog {
+/**
+ * Размер буфера по умолчанию (параметр сервлета failureLogSize)
+ */
+	static final int DEFAULT_SIZE = 32;
+/**
+ * Число ошибок, журналируемых полностью за одно окно
+ */
+	static final int LOG_BURST = 5;
+/**
+ * Длительность окна ограничения журналирования в секундах
+ */
+	static final long LOG_WINDOW_SECONDS = 10;
+/**
+ * Доля журналируемых ошибок сверх ограничения: одна из указанного числа
+ */
+	static final int LOG_SAMPLE = 100;
+/**
+ * Заголовки, сохраняемые по умолчанию (параметр сервлета failureHeaders)
+ */
+	static final List<String> DEFAULT_HEADERS = Arrays.asList("accept", "content-length", "content-type",
+		"referer", "user-agent", "x-request-timeout");
+
+	private static final String PARAMETER = "failureLogSize";
+	private static final String HEADERS_PARAMETER = "failureHeaders";
+
+	private final AtomicReferenceArray<Failure> ring;
+	private final Set<String> allowedHeaders;
+	private final AtomicLong next = new AtomicLong();
+	final LongAdder total = new LongAdder();
+	private final AtomicLong window = new AtomicLong(Long.MIN_VALUE);
+	private final AtomicInteger logged = new AtomicInteger();
+	private final AtomicInteger suppressed = new AtomicInteger();
+/**
+ * Сведения об одном неудачном вызове
+ */
+	static final class Failure {
+		final long time = System.currentTimeMillis();
+		final long durationNanos;
+		final String method;
+		final String remoteAddr;
+		final Map<String, String[]> parameters;
+		final List<String[]> headers;
+		final JSONObject params;
+		final Throwable error;
+
+		Failure(HttpServletRequest request, Set<String> allowed, JSONObject params, long durationNanos,
+				Throwable error) {
+			this.durationNanos = durationNanos;
+			this.params = null == allowed ? null : params;
+			this.error = error;
+			if (null == request || null == allowed) {
+				this.method = null;
+				this.remoteAddr = null;
+				this.parameters = Collections.emptyMap();
+				this.headers = Collections.emptyList();
+				return;
+			}
+			this.method = request.getMethod();
+			this.remoteAddr = request.getRemoteAddr();
+			this.parameters = new HashMap<>(request.getParameterMap());
+			this.headers = new ArrayList<>();
+			for (Enumeration<String> names = request.getHeaderNames(); names.hasMoreElements();) {
+				final String name = names.nextElement();
+				if (!allowed.contains(name.toLowerCase(Locale.ROOT))) {
+					continue;
+				}
+				for (Enumeration<String> values = request.getHeaders(name); values.hasMoreElements();) {
+					headers.add(new String[] {name, values.nextElement()});
+				}
+			}
+		}
+/**
+ * Представление сведений для просмотра. Вместо значений параметров выдаются их длины
+ * @return JSONObject сведений о вызове
+ */
+		JSONObject toJSON() {
+			final JSONObject parametersJSON = new JSONObject();
+			parameters.forEach((name, values) -> {
+				final JSONArray sizes = new JSONArray();
+				for (String value : values) {
+					sizes.put(null == value ? 0 : value.length());
+				}
+				parametersJSON.put(name, sizes);
+			});
+			JSONObject paramsJSON = null;
+			if (null != params) {
+				paramsJSON = new JSONObject();
+				for (Iterator<String> keys = params.keys(); keys.hasNext();) {
+					final String key = keys.next();
+					paramsJSON.put(key, String.valueOf(params.opt(key)).length());
+				}
+			}
+			final JSONArray headersJSON = new JSONArray();
+			headers.forEach(header -> headersJSON.put(header[0] + ": " + header[1]));
+			final StringWriter trace = new StringWriter();
+			error.printStackTrace(new PrintWriter(trace));
+			return new JSONObject()
+				.put("time", time)
+				.put("durationMicros", durationNanos / 1000)
+				.put("method", method)
+				.put("remoteAddr", remoteAddr)
+				.put("parameters", parametersJSON)
+				.put("params", null == paramsJSON ? JSONObject.NULL : paramsJSON)
+				.put("headers", headersJSON)
+				.put("exception", error.getClass().getName())
+				.put("message", error.getLocalizedMessage())
+				.put("stackTrace", trace.toString());
+		}
+	}
+/**
+ * Конструктор
+ * @param size Число хранимых неудачных вызовов
+ * @param allowedHeaders Сохраняемые заголовки (имена в нижнем регистре), либо null, если сведения
+ * о запросе не сохраняются
+ */
+	FailureLog(int size, Set<String> allowedHeaders) {
+		this.ring = new AtomicReferenceArray<>(Math.max(1, size));
+		this.allowedHeaders = allowedHeaders;
+	}
+/**
+ * Буфер неудачных вызовов обработчика по параметрам сервлета failureLogSize, failuresRole
+ * и failureHeaders
+ * @param context Контекст с параметрами сервлета
+ * @param logger Журнал для сообщения о некорректном значении параметра
+ * @return Буфер неудачных вызовов
+ */
+	static FailureLog of(AJAXContext context, Logger logger) {
+		final String role = context.getInitParameter(Failures.ROLE_PARAMETER);
+		Set<String> allowed = null;
+		if (null != role && !role.trim().isEmpty()) {
+			final String list = context.getInitParameter(HEADERS_PARAMETER);
+			allowed = new HashSet<>();
+			if (null == list) {
+				allowed.addAll(DEFAULT_HEADERS);
+			} else {
+				for (String name : list.split(",")) {
+					if (!name.trim().isEmpty()) {
+						allowed.add(name.trim().toLowerCase(Locale.ROOT));
+					}
+				}
+			}
+		}
+		final String value = context.getInitParameter(PARAMETER);
+		if (null != value) {
+			try {
+				return new FailureLog(Integer.parseInt(value.trim()), allowed);
+			} catch (NumberFormatException ex) {
+				logger.warn("Некорректное значение параметра сервлета " + PARAMETER + ": " + value, ex);
+			}
+		}
+		return new FailureLog(DEFAULT_SIZE, allowed);
+	}
+/**
+ * Учёт неудачного вызова: сохранение в буфере и, если позволяет ограничение, запись в журнал
+ * @param logger Журнал
+ * @param index Полное имя обработчика module.action
+ * @param request Запрос, либо null для вызова из пакета
+ * @param params Параметры обработчика, либо null
+ * @param durationNanos Длительность исполнения
+ * @param error Ошибка исполнения
+ */
+	void record(Logger logger, String index, HttpServletRequest request, JSONObject params,
+			long durationNanos, Throwable error) {
+		total.increment();
+		ring.set((int)(next.getAndIncrement() % ring.length()), new Failure(request, allowedHeaders, params,
+			durationNanos, error));
+		if (allowLog()) {
+			final int skipped = suppressed.getAndSet(0);
+			if (skipped > 0) {
+				logger.warn("Ошибок AJAX-обработчика {} сверх ограничения журналирования: {} (см. core.Failures)", index, skipped);
+			}
+			logger.error("Ошибка исполнения AJAX-обработчика " + index, error);
+		} else if (0 == suppressed.incrementAndGet() % LOG_SAMPLE) {
+			logger.error("Ошибка исполнения AJAX-обработчика " + index + " (выборочно, одна из " + LOG_SAMPLE
+				+ " сверх ограничения)", error);
+		}
+	}
+/**
+ * Сохранённые неудачные вызовы, начиная с последнего
+ * @return Список сведений о вызовах
+ */
+	List<Failure> snapshot() {
+		final long end = next.get();
+		final List<Failure> result = new ArrayList<>(ring.length());
+		for (long i = end - 1; i >= 0 && i >= end - ring.length(); i--) {
+			final Failure failure = ring.get((int)(i % ring.length()));
+			if (null != failure) {
+				result.add(failure);
+			}
+		}
+		return result;
+	}
+
+	private boolean allowLog() {
+		final long now = System.nanoTime();
+		final long started = window.get();
+		if (Long.MIN_VALUE == started || now - started >= TimeUnit.SECONDS.toNanos(LOG_WINDOW_SECONDS)) {
+			if (window.compareAndSet(started, now)) {
+				logged.set(1);
+				return true;
+			}
+		}
+		return logged.incrementAndGet() <= LOG_BURST;
+	}
+
+}
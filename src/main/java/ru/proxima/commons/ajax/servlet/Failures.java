@@ -0,0 +1,64 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXRequest;
+import ru.proxima.commons.ajax.AJAXResponse;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Встроенный обработчик core.Failures: последние неудачные вызовы загруженных обработчиков
+ * (имена и размеры параметров без значений, заголовки из перечня failureHeaders,
+ * длительность и исключение).
+ * С параметром handler=module.action выдаёт сведения только этого обработчика.
+ * Регистрируется, только если задан параметр сервлета failuresRole, и доступен лишь
+ * пользователям указанной в нём роли
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class Failures extends DiagnosticHandler {
+/**
+ * Параметр сервлета с ролью пользователей сведений о неудачных вызовах
+ */
+	static final String ROLE_PARAMETER = "failuresRole";
+/**
+ * Конструктор
+ */
+	public Failures() {
+		super(ROLE_PARAMETER);
+	}
+
+	@Override public void process(AJAXRequest request, AJAXResponse response) throws AJAXExecuteException {
+		authorize(request);
+		final String body = toJSON(request.getParameter("handler")).toString();
+		response.response().setHeader("Cache-Control", "no-store");
+		response.setContentType("application/json; charset=UTF-8");
+		try (OutputStream out = response.getCompressedOutputStream(request)) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException ex) {
+			throw new AJAXExecuteException("Не удалось отправить сведения о неудачных вызовах", ex);
+		}
+	}
+/**
+ * Неудачные вызовы обработчиков в виде JSON-объекта module.action -&gt; {total, recent}
+ * @param index Полное имя обработчика module.action, либо null для всех обработчиков
+ * @return JSONObject сведений; обработчики без неудачных вызовов не включаются
+ */
+	static JSONObject toJSON(String index) {
+		final JSONObject result = new JSONObject();
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			final long total = entry.failures.total.sum();
+			if (0 == total || null != index && !index.equals(entry.index)) {
+				continue;
+			}
+			final JSONArray recent = new JSONArray();
+			entry.failures.snapshot().forEach(failure -> recent.put(failure.toJSON()));
+			result.put(entry.index, new JSONObject()
+				.put("total", total)
+				.put("recent", recent));
+		}
+		return result;
+	}
+
+}
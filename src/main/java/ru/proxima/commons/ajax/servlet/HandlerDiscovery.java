@@ -0,0 +1,162 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.proxima.commons.ajax.AJAXHandlerIndex;
+import ru.proxima.commons.ajax.CommonAJAXHandler;
+/**
+ * Поиск AJAX-обработчиков по файлам META-INF/services, как это делает {@link java.util.ServiceLoader},
+ * но с параллельной обработкой источников (jar-архивов и каталогов классов). Порядок результатов
+ * совпадает с порядком {@link java.util.ServiceLoader}, поэтому при совпадении имён побеждает тот же обработчик.
+ * Индексы обработчиков ({@link AJAXHandlerIndex}), сформированные при сборке, читаются отдельно
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class HandlerDiscovery implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(HandlerDiscovery.class);
+	private static final String SERVICES = "META-INF/services/" + CommonAJAXHandler.class.getName();
+	private static final String INDEXES = "META-INF/services/" + AJAXHandlerIndex.class.getName();
+
+	private final ClassLoader cl;
+	private final List<List<String>> sources;
+	private final List<String> indexes;
+	private final ExecutorService executor;
+/**
+ * Чтение списков обработчиков из всех источников загрузчика классов
+ * @param cl Загрузчик классов
+ * @throws IOException Не удалось перечислить файлы META-INF/services
+ */
+	HandlerDiscovery(ClassLoader cl) throws IOException {
+		this.cl = cl;
+		this.sources = readSources(cl, SERVICES);
+		this.indexes = new ArrayList<>();
+		readSources(cl, INDEXES).forEach(indexes::addAll);
+		final int threads = Math.max(1, Math.min(sources.size(), Runtime.getRuntime().availableProcessors()));
+		final AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, task -> {
+			final Thread thread = new Thread(task, "ajax-discovery-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setContextClassLoader(cl);
+			return thread;
+		});
+	}
+/**
+ * Имена классов обработчиков по источникам, без повторов
+ * @return Списки имён классов, по одному на источник
+ */
+	List<List<String>> getSources() {
+		return sources;
+	}
+/**
+ * Имена классов индексов обработчиков, сформированных при сборке
+ * @return Имена классов индексов
+ */
+	List<String> getIndexes() {
+		return indexes;
+	}
+/**
+ * Создание индекса обработчиков по имени класса
+ * @param name Имя класса индекса
+ * @return Индекс, либо null, если его не удалось создать
+ */
+	AJAXHandlerIndex loadIndex(String name) {
+		try {
+			return Class.forName(name, true, cl).asSubclass(AJAXHandlerIndex.class).getConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException | LinkageError ex) {
+			logger.error("Не удалось загрузить индекс AJAX-обработчиков " + name, ex);
+			return null;
+		}
+	}
+/**
+ * Загрузка класса обработчика по имени без его инициализации: статические инициализаторы
+ * исполняются только при создании обработчика
+ * @param name Имя класса обработчика
+ * @return Класс обработчика, либо null, если класс не удалось загрузить
+ */
+	Class<? extends CommonAJAXHandler> load(String name) {
+		try {
+			return Class.forName(name, false, cl).asSubclass(CommonAJAXHandler.class);
+		} catch (ClassNotFoundException | ClassCastException | LinkageError ex) {
+			logger.error("Не удалось загрузить класс AJAX-обработчика " + name, ex);
+			return null;
+		}
+	}
+/**
+ * Параллельное применение функции к элементам с сохранением порядка результатов.
+ * Потоки получают загрузчик классов обработчиков в качестве контекстного
+ * @param <T> Тип элементов
+ * @param <R> Тип результатов
+ * @param items Элементы
+ * @param task Функция, не бросающая исключений
+ * @return Результаты в порядке элементов
+ */
+	<T, R> List<R> map(List<T> items, Function<T, R> task) {
+		final List<Future<R>> futures = new ArrayList<>(items.size());
+		for (T item : items) {
+			futures.add(executor.submit(() -> task.apply(item)));
+		}
+		final List<R> results = new ArrayList<>(items.size());
+		for (Future<R> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException ex) {
+				logger.error("Сбой при загрузке AJAX-обработчиков", ex.getCause());
+				results.add(null);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Загрузка AJAX-обработчиков прервана", ex);
+			}
+		}
+		return results;
+	}
+
+	@Override public void close() {
+		executor.shutdown();
+	}
+
+	private static List<List<String>> readSources(ClassLoader cl, String services) throws IOException {
+		final List<List<String>> result = new ArrayList<>();
+		final Set<String> seen = new HashSet<>();
+		for (Enumeration<URL> urls = cl.getResources(services); urls.hasMoreElements();) {
+			final URL url = urls.nextElement();
+			final List<String> names = new ArrayList<>();
+			final URLConnection connection = url.openConnection();
+			connection.setUseCaches(false);
+			try (InputStream in = connection.getInputStream();
+					BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+				for (String line = reader.readLine(); null != line; line = reader.readLine()) {
+					final int comment = line.indexOf('#');
+					final String name = (comment < 0 ? line : line.substring(0, comment)).trim();
+					if (!name.isEmpty() && seen.add(name)) {
+						names.add(name);
+					}
+				}
+			} catch (IOException ex) {
+				logger.error("Не удалось прочитать список AJAX-обработчиков " + url, ex);
+			}
+			if (!names.isEmpty()) {
+				result.add(names);
+			}
+		}
+		return result;
+	}
+
+}
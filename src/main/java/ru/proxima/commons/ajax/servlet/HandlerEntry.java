@@ -0,0 +1,58 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.atomic.LongAdder;
+import ru.proxima.commons.ajax.AJAXHandler;
+/**
+ * Запись реестра AJAX-обработчиков: сам обработчик и заранее вычисленные
+ * имена модуля и действия, чтобы не собирать их заново на каждом запросе
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class HandlerEntry {
+
+	final AJAXHandler handler;
+	final String module;
+	final String action;
+/**
+ * Полное имя обработчика вида module.action для журналов и сообщений об ошибках
+ */
+	final String index;
+/**
+ * Ограничение вынесенного исполнения, либо null, если обработчик исполняется в потоке контейнера
+ */
+	final HandlerOffload offload;
+/**
+ * Статистика кэша ответов, либо null, если ответы обработчика не кэшируются
+ */
+	final ResponseCache.Stats cacheStats;
+/**
+ * Число вызовов, присоединённых к уже исполняемому одинаковому вызову, либо null,
+ * если вызовы обработчика не объединяются
+ */
+	final LongAdder coalesced;
+/**
+ * Ограничение допуска вызовов, либо null, если вызовы не ограничиваются
+ */
+	final HandlerLimit limit;
+/**
+ * Счётчики и гистограмма длительностей исполнения обработчика
+ */
+	final HandlerMetrics metrics = new HandlerMetrics();
+/**
+ * Последние неудачные вызовы обработчика
+ */
+	final FailureLog failures;
+
+	HandlerEntry(AJAXHandler handler, String module, String action, int offloadLimit, HandlerLimit limit,
+			FailureLog failures) {
+		this.handler = handler;
+		this.module = module;
+		this.action = action;
+		this.index = module + "." + action;
+		this.offload = offloadLimit > 0 ? new HandlerOffload(index, offloadLimit) : null;
+		this.cacheStats = handler.getCacheTTL() > 0 ? new ResponseCache.Stats() : null;
+		this.coalesced = handler.isCoalesced() ? new LongAdder() : null;
+		this.limit = limit;
+		this.failures = failures;
+	}
+
+}
@@ -0,0 +1,197 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.proxima.commons.ajax.AJAXContext;
+/**
+ * Ограничение допуска вызовов одного AJAX-обработчика (параметр сервлета limit.module.action):
+ * число одновременных исполнений, ограниченная очередь ожидания свободного исполнения
+ * с предельным временем ожидания и частота вызовов по маркерной корзине. Вызов, не прошедший
+ * ограничение, отклоняется сразу, не занимая поток дольше предельного времени ожидания.
+ * Значение параметра - перечень через запятую, например
+ * {@code concurrency=4, queue=16, maxWaitMs=500, rate=20, burst=40}
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class HandlerLimit {
+
+	private static final Logger logger = LoggerFactory.getLogger(HandlerLimit.class);
+/**
+ * Префикс имени параметра сервлета, задающего ограничение обработчика
+ */
+	static final String PARAMETER_PREFIX = "limit.";
+/**
+ * Вызов допущен к исполнению
+ */
+	static final long ADMITTED = 0;
+
+	final int concurrency;
+	final int queue;
+	final long maxWaitMillis;
+	final double rate;
+	final int burst;
+	final LongAdder rejectedByConcurrency = new LongAdder();
+	final LongAdder rejectedByRate = new LongAdder();
+
+	private final Semaphore permits;
+	private final AtomicInteger waiting = new AtomicInteger();
+/**
+ * Интервал между маркерами корзины в наносекундах
+ */
+	private final long interval;
+/**
+ * Теоретический момент прихода следующего вызова (алгоритм GCRA, равносильный маркерной корзине
+ * ёмкостью burst, но без отдельного потока пополнения)
+ */
+	private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+	private HandlerLimit(int concurrency, int queue, long maxWaitMillis, double rate, int burst) {
+		this.concurrency = concurrency;
+		this.queue = queue;
+		this.maxWaitMillis = maxWaitMillis;
+		this.rate = rate;
+		this.burst = burst;
+		this.permits = concurrency > 0 ? new Semaphore(concurrency, true) : null;
+		this.interval = rate > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+	}
+/**
+ * Ограничение обработчика по параметру сервлета limit.module.action
+ * @param context Контекст с параметрами сервлета
+ * @param index Полное имя обработчика module.action
+ * @return Ограничение, либо null, если оно не задано или задано некорректно
+ */
+	static HandlerLimit of(AJAXContext context, String index) {
+		final String spec = context.getInitParameter(PARAMETER_PREFIX + index);
+		if (null == spec) {
+			return null;
+		}
+		try {
+			return parse(spec);
+		} catch (IllegalArgumentException ex) {
+			logger.error("Некорректное ограничение AJAX-обработчика " + index + ": " + spec, ex);
+			return null;
+		}
+	}
+/**
+ * Разбор значения параметра сервлета
+ * @param spec Перечень concurrency, queue, maxWaitMs, rate и burst через запятую
+ * @return Ограничение, либо null, если ни одно ограничение не задано
+ * @throws IllegalArgumentException Значение параметра некорректно
+ */
+	static HandlerLimit parse(String spec) throws IllegalArgumentException {
+		int concurrency = 0, queue = 0, burst = 0;
+		long maxWaitMillis = 0;
+		double rate = 0;
+		for (String item : spec.split(",")) {
+			final int eq = item.indexOf('=');
+			if (item.trim().isEmpty()) {
+				continue;
+			} else if (eq < 0) {
+				throw new IllegalArgumentException("Ожидается имя=значение: " + item.trim());
+			}
+			final String name = item.substring(0, eq).trim();
+			final String value = item.substring(eq + 1).trim();
+			switch (name) {
+				case "concurrency":
+					concurrency = Integer.parseInt(value);
+					break;
+				case "queue":
+					queue = Integer.parseInt(value);
+					break;
+				case "maxWaitMs":
+					maxWaitMillis = Long.parseLong(value);
+					break;
+				case "rate":
+					rate = Double.parseDouble(value);
+					break;
+				case "burst":
+					burst = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Неизвестное ограничение " + name);
+			}
+		}
+		if (concurrency < 0 || queue < 0 || maxWaitMillis < 0 || rate < 0 || burst < 0) {
+			throw new IllegalArgumentException("Ограничения не могут быть отрицательными: " + spec);
+		}
+		return concurrency > 0 || rate > 0
+			? new HandlerLimit(concurrency, queue, maxWaitMillis, rate, Math.max(1, burst)) : null;
+	}
+/**
+ * Попытка допуска вызова. Если свободного исполнения нет, вызов ждёт его не дольше maxWaitMs,
+ * но только при наличии места в очереди. Допущенный вызов обязан вернуть разрешение
+ * методом {@link #release()}
+ * @return {@link #ADMITTED}, либо рекомендуемая пауза перед повтором в секундах (для Retry-After)
+ */
+	long acquire() {
+		if (interval > 0) {
+			final long delay = takeToken();
+			if (delay > 0) {
+				rejectedByRate.increment();
+				return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(delay + TimeUnit.SECONDS.toNanos(1) - 1));
+			}
+		}
+		if (null == permits || permits.tryAcquire()) {
+			return ADMITTED;
+		}
+		if (maxWaitMillis > 0 && waiting.incrementAndGet() <= queue) {
+			try {
+				if (permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+					return ADMITTED;
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				waiting.decrementAndGet();
+			}
+		} else if (maxWaitMillis > 0) {
+			waiting.decrementAndGet();
+		}
+		rejectedByConcurrency.increment();
+		return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(maxWaitMillis + 999));
+	}
+/**
+ * Возврат разрешения допущенного вызова
+ */
+	void release() {
+		if (null != permits) {
+			permits.release();
+		}
+	}
+/**
+ * Число исполнений, занимающих разрешение в данный момент
+ * @return Количество занятых разрешений
+ */
+	int getActive() {
+		return null == permits ? 0 : concurrency - permits.availablePermits();
+	}
+/**
+ * Число вызовов, ожидающих свободного исполнения
+ * @return Длина очереди ожидания
+ */
+	int getWaiting() {
+		return waiting.get();
+	}
+/**
+ * Получение маркера корзины
+ * @return 0, если маркер получен, иначе время до появления маркера в наносекундах
+ */
+	private long takeToken() {
+		final long now = System.nanoTime();
+		final long tolerance = interval * burst;
+		while (true) {
+			final long current = arrival.get();
+			final long next = (Long.MIN_VALUE == current || current - now < 0 ? now : current) + interval;
+			if (next - now > tolerance) {
+				return next - now - tolerance;
+			} else if (arrival.compareAndSet(current, next)) {
+				return 0;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Счётчики исполнения одного AJAX-обработчика: вызовы, ошибки по типам исключений,
+ * число исполняемых в данный момент вызовов, отправленные байты и гистограмма длительностей.
+ * Учёт ведётся без блокировок
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class HandlerMetrics {
+
+	final LongAdder calls = new LongAdder();
+	final LongAdder inFlight = new LongAdder();
+	final LongAdder bytesWritten = new LongAdder();
+	final LatencyHistogram latency = new LatencyHistogram();
+/**
+ * Число ошибок по имени класса исключения
+ */
+	final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+/**
+ * Начало исполнения обработчика
+ * @return Момент начала по {@link System#nanoTime()}
+ */
+	long begin() {
+		calls.increment();
+		inFlight.increment();
+		return System.nanoTime();
+	}
+/**
+ * Окончание исполнения обработчика
+ * @param started Момент начала, полученный от {@link #begin()}
+ * @param failure Исключение, которым завершилось исполнение, либо null
+ */
+	void end(long started, Throwable failure) {
+		latency.record(System.nanoTime() - started);
+		inFlight.decrement();
+		if (null != failure) {
+			error(failure.getClass().getName());
+		}
+	}
+/**
+ * Учёт ошибки исполнения
+ * @param type Тип ошибки (имя класса исключения)
+ */
+	void error(String type) {
+		LongAdder counter = errors.get(type);
+		if (null == counter) {
+			counter = errors.computeIfAbsent(type, key -> new LongAdder());
+		}
+		counter.increment();
+	}
+
+}
@@ -0,0 +1,64 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Ограничение числа одновременных вынесенных исполнений одного AJAX-обработчика и учёт
+ * времени ожидания разрешения. Ожидание происходит в вынесенном потоке, а не в потоке контейнера
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class HandlerOffload {
+
+	private static final Logger logger = LoggerFactory.getLogger(HandlerOffload.class);
+/**
+ * Ожидание разрешения дольше этого порога попадает в журнал
+ */
+	private static final long WAIT_WARN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Semaphore permits;
+	private final String index;
+	final int limit;
+	final LongAdder executions = new LongAdder();
+	final LongAdder waitNanos = new LongAdder();
+	final AtomicLong maxWaitNanos = new AtomicLong();
+
+	HandlerOffload(String index, int limit) {
+		this.index = index;
+		this.limit = limit;
+		this.permits = new Semaphore(limit, true);
+	}
+/**
+ * Исполняет задачу, дождавшись свободного разрешения
+ * @param queued Момент постановки задачи в очередь по {@link System#nanoTime()}
+ * @param task Исполнение обработчика
+ * @throws InterruptedException Ожидание разрешения прервано
+ */
+	void run(long queued, Runnable task) throws InterruptedException {
+		permits.acquire();
+		try {
+			final long waited = System.nanoTime() - queued;
+			executions.increment();
+			waitNanos.add(waited);
+			maxWaitNanos.accumulateAndGet(waited, Math::max);
+			if (waited > WAIT_WARN_NANOS) {
+				logger.warn("AJAX-обработчик {} ожидал свободного потока {} мс (ограничение {})",
+					index, TimeUnit.NANOSECONDS.toMillis(waited), limit);
+			}
+			task.run();
+		} finally {
+			permits.release();
+		}
+	}
+/**
+ * Число исполнений, занимающих разрешение в данный момент
+ * @return Количество занятых разрешений
+ */
+	int getActive() {
+		return limit - permits.availablePermits();
+	}
+
+}
@@ -0,0 +1,111 @@
+package ru.proxima.commons.ajax.servlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.function.Supplier;
+import ru.proxima.commons.ajax.AJAXContext;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXHandlerIndex;
+import ru.proxima.commons.ajax.CommonAJAXHandler;
+/**
+ * Запись реестра до создания обработчика: класс, модуль и действие известны без вызова
+ * конструктора и статической инициализации класса (из индекса, сформированного при сборке,
+ * либо по загруженному, но не инициализированному классу). Обработчик создаётся и инициализируется
+ * при первом обращении, однократно, и публикуется через volatile-поле
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class HandlerProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(HandlerProvider.class);
+
+	final String className;
+	final String module;
+	final String action;
+	final String index;
+	private final Supplier<? extends CommonAJAXHandler> factory;
+	private final int offloadLimit;
+	private final AJAXContext context;
+	private volatile HandlerEntry entry;
+/**
+ * Конструктор для обработчика, найденного по META-INF/services: модуль определяется
+ * по источнику класса, обработчик создаётся рефлексией
+ * @param type Класс обработчика (может быть ещё не инициализирован)
+ * @param offloadLimit Ограничение вынесенного исполнения по модулю (0 - в потоке контейнера),
+ * если обработчик не задаёт собственное
+ * @param context Контекст, передаваемый обработчику при создании
+ */
+	HandlerProvider(Class<? extends CommonAJAXHandler> type, int offloadLimit, AJAXContext context) {
+		this(type.getName(), CommonAJAXHandler.getModuleName(type), CommonAJAXHandler.getActionName(type), () -> {
+			try {
+				return type.getConstructor().newInstance();
+			} catch (ReflectiveOperationException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}, offloadLimit, context);
+	}
+/**
+ * Конструктор для обработчика из индекса, сформированного при сборке
+ * @param handler Описание обработчика в индексе
+ * @param offloadLimit Ограничение вынесенного исполнения по модулю (0 - в потоке контейнера),
+ * если обработчик не задаёт собственное
+ * @param context Контекст, передаваемый обработчику при создании
+ */
+	HandlerProvider(AJAXHandlerIndex.Handler handler, int offloadLimit, AJAXContext context) {
+		this(handler.getClassName(), handler.getModule(), handler.getAction(), handler::create, offloadLimit, context);
+	}
+
+	private HandlerProvider(String className, String module, String action,
+			Supplier<? extends CommonAJAXHandler> factory, int offloadLimit, AJAXContext context) {
+		this.className = className;
+		this.module = module;
+		this.action = action;
+		this.index = module + "." + action;
+		this.factory = factory;
+		this.offloadLimit = offloadLimit;
+		this.context = context;
+	}
+/**
+ * Запись реестра с созданным обработчиком. Первый вызов создаёт и инициализирует обработчик,
+ * параллельные первые вызовы ожидают его; при неудаче попытка повторяется при следующем вызове
+ * @return Запись реестра AJAX-обработчика
+ * @throws IllegalStateException Обработчик не удалось создать или инициализировать
+ */
+	HandlerEntry get() throws IllegalStateException {
+		HandlerEntry result = entry;
+		if (null == result) {
+			synchronized (this) {
+				result = entry;
+				if (null == result) {
+					result = create();
+					entry = result;
+				}
+			}
+		}
+		return result;
+	}
+/**
+ * Запись реестра, если обработчик уже создан
+ * @return Запись реестра, либо null
+ */
+	HandlerEntry peek() {
+		return entry;
+	}
+
+	private HandlerEntry create() throws IllegalStateException {
+		final long started = System.nanoTime();
+		final CommonAJAXHandler handler;
+		try {
+			handler = factory.get();
+			handler.init(context);
+		} catch (AJAXExecuteException | RuntimeException | LinkageError ex) {
+			throw new IllegalStateException("Не удалось создать AJAX-обработчик " + index, ex);
+		}
+		final HandlerEntry result = new HandlerEntry(handler, module, action,
+			handler.getOffloadConcurrency() > 0 ? handler.getOffloadConcurrency() : offloadLimit,
+			HandlerLimit.of(context, index), FailureLog.of(context, logger));
+		logger.debug("Создан AJAX-обработчик " + index + " за "
+			+ (System.nanoTime() - started) / 1000000 + " мс");
+		return result;
+	}
+
+}
@@ -0,0 +1,104 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Гистограмма длительностей с логарифмическими интервалами: каждая степень двойки делится
+ * на 16 интервалов, поэтому погрешность перцентилей не превышает 6,25%. Запись значения -
+ * одно атомарное приращение без блокировок и выделения памяти
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+/**
+ * Учёт длительности
+ * @param nanos Длительность в наносекундах
+ */
+	void record(long nanos) {
+		final long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+/**
+ * Снимок гистограммы. Интервалы читаются по одному, поэтому снимок, сделанный
+ * во время записи, может не учитывать значения, записанные параллельно
+ * @return Снимок гистограммы
+ */
+	Snapshot snapshot() {
+		final long[] copy = new long[counts.length()];
+		long count = 0;
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, sum.sum(), max.get());
+	}
+
+	private static int index(long value) {
+		if (value < SUB_COUNT) {
+			return (int)value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	private static long upperBound(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		final int exponent = index / SUB_COUNT + SUB_BITS - 1;
+		final long sub = index % SUB_COUNT;
+		return ((SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+/**
+ * Снимок гистограммы длительностей
+ */
+	static final class Snapshot {
+
+		private final long[] counts;
+		final long count;
+		final long sum;
+		final long max;
+
+		private Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+/**
+ * Перцентиль длительности
+ * @param quantile Квантиль от 0 до 1
+ * @return Верхняя граница интервала, содержащего квантиль, в наносекундах (не больше максимума),
+ * либо 0, если значений нет
+ */
+		long percentile(double quantile) {
+			if (0 == count) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long)Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), max);
+				}
+			}
+			return max;
+		}
+
+	}
+
+}
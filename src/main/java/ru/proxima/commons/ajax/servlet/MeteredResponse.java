@@ -0,0 +1,212 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+/**
+ * Обёртка ответа, считающая отправленные обработчиком байты (после сжатия).
+ * По истечении срока запроса ответ отсоединяется от обработчика: дальнейшая запись завершается
+ * ошибкой, а изменения статуса и заголовков игнорируются, т.к. ответ уже отправлен сервлетом
+ * и может быть переиспользован контейнером
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class MeteredResponse extends HttpServletResponseWrapper {
+
+	private final HandlerMetrics metrics;
+	private ServletOutputStream stream;
+	private PrintWriter writer;
+	private boolean detached;
+
+	MeteredResponse(HttpServletResponse response, HandlerMetrics metrics) {
+		super(response);
+		this.metrics = metrics;
+	}
+
+	@Override public ServletOutputStream getOutputStream() throws IOException {
+		if (null == stream) {
+			final ServletOutputStream out = super.getOutputStream();
+			stream = new ServletOutputStream() {
+				@Override public void write(int b) throws IOException {
+					synchronized (MeteredResponse.this) {
+						checkAttached();
+						out.write(b);
+					}
+					metrics.bytesWritten.increment();
+				}
+
+				@Override public void write(byte[] b, int off, int len) throws IOException {
+					synchronized (MeteredResponse.this) {
+						checkAttached();
+						out.write(b, off, len);
+					}
+					metrics.bytesWritten.add(len);
+				}
+
+				@Override public void flush() throws IOException {
+					synchronized (MeteredResponse.this) {
+						checkAttached();
+						out.flush();
+					}
+				}
+
+				@Override public void close() throws IOException {
+					synchronized (MeteredResponse.this) {
+						if (!detached) {
+							out.close();
+						}
+					}
+				}
+
+				@Override public boolean isReady() {
+					return out.isReady();
+				}
+
+				@Override public void setWriteListener(WriteListener listener) {
+					out.setWriteListener(listener);
+				}
+			};
+		}
+		return stream;
+	}
+
+	@Override public PrintWriter getWriter() throws IOException {
+		if (null == writer) {
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override public void flushBuffer() throws IOException {
+		if (null != writer) {
+			writer.flush();
+		}
+		synchronized (this) {
+			checkAttached();
+			super.flushBuffer();
+		}
+	}
+
+	@Override public synchronized void resetBuffer() {
+		if (!detached) {
+			super.resetBuffer();
+			writer = null;
+		}
+	}
+
+	@Override public synchronized void reset() {
+		if (!detached) {
+			super.reset();
+			writer = null;
+		}
+	}
+
+	@Override public synchronized void sendError(int sc) throws IOException {
+		if (!detached) {
+			super.sendError(sc);
+		}
+	}
+
+	@Override public synchronized void sendError(int sc, String msg) throws IOException {
+		if (!detached) {
+			super.sendError(sc, msg);
+		}
+	}
+
+	@Override public synchronized void sendRedirect(String location) throws IOException {
+		if (!detached) {
+			super.sendRedirect(location);
+		}
+	}
+
+	@Override public synchronized void setStatus(int sc) {
+		if (!detached) {
+			super.setStatus(sc);
+		}
+	}
+
+	@Override public synchronized void setHeader(String name, String value) {
+		if (!detached) {
+			super.setHeader(name, value);
+		}
+	}
+
+	@Override public synchronized void addHeader(String name, String value) {
+		if (!detached) {
+			super.addHeader(name, value);
+		}
+	}
+
+	@Override public synchronized void setIntHeader(String name, int value) {
+		if (!detached) {
+			super.setIntHeader(name, value);
+		}
+	}
+
+	@Override public synchronized void addIntHeader(String name, int value) {
+		if (!detached) {
+			super.addIntHeader(name, value);
+		}
+	}
+
+	@Override public synchronized void setDateHeader(String name, long date) {
+		if (!detached) {
+			super.setDateHeader(name, date);
+		}
+	}
+
+	@Override public synchronized void addDateHeader(String name, long date) {
+		if (!detached) {
+			super.addDateHeader(name, date);
+		}
+	}
+
+	@Override public synchronized void setContentType(String type) {
+		if (!detached) {
+			super.setContentType(type);
+		}
+	}
+
+	@Override public synchronized void setContentLength(int len) {
+		if (!detached) {
+			super.setContentLength(len);
+		}
+	}
+
+	@Override public synchronized void setContentLengthLong(long len) {
+		if (!detached) {
+			super.setContentLengthLong(len);
+		}
+	}
+
+	@Override public synchronized void setCharacterEncoding(String charset) {
+		if (!detached) {
+			super.setCharacterEncoding(charset);
+		}
+	}
+/**
+ * Отсоединение ответа от обработчика по истечении срока запроса. Запись, начатая
+ * обработчиком до отсоединения, успевает завершиться
+ */
+	synchronized void detach() {
+		detached = true;
+	}
+
+	private void checkAttached() throws IOException {
+		if (detached) {
+			throw new IOException("Ответ уже отправлен по истечении срока запроса");
+		}
+	}
+/**
+ * Дописывает в ответ буфер печатаемого потока, если обработчик не закрыл его сам
+ */
+	void finish() {
+		if (null != writer) {
+			writer.flush();
+		}
+	}
+
+}
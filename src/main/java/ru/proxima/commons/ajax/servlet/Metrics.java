@@ -0,0 +1,210 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXRequest;
+import ru.proxima.commons.ajax.AJAXResponse;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Встроенный обработчик core.Metrics: счётчики и перцентили длительности всех загруженных
+ * обработчиков, а также ожидание вынесенного исполнения и состояние его исполнителя (виртуальные
+ * потоки, закрепления потоков-носителей, отклонённые задачи). По умолчанию отвечает JSON-объектом
+ * (длительности в микросекундах), с параметром format=prometheus - в текстовом формате Prometheus
+ * (длительности в секундах). Регистрируется, только если задан параметр сервлета metricsRole,
+ * и доступен лишь пользователям указанной в нём роли
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class Metrics extends DiagnosticHandler {
+/**
+ * Параметр сервлета с ролью пользователей метрик
+ */
+	static final String ROLE_PARAMETER = "metricsRole";
+
+	private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+	private static final String[] QUANTILE_NAMES = {"p50", "p99", "p999"};
+/**
+ * Конструктор
+ */
+	public Metrics() {
+		super(ROLE_PARAMETER);
+	}
+
+	@Override public void process(AJAXRequest request, AJAXResponse response) throws AJAXExecuteException {
+		authorize(request);
+		final boolean prometheus = "prometheus".equals(request.getParameter("format"));
+		final String body = prometheus ? toPrometheus() : toJSON().toString();
+		response.response().setHeader("Cache-Control", "no-store");
+		response.setContentType(prometheus ? "text/plain; version=0.0.4; charset=UTF-8"
+			: "application/json; charset=UTF-8");
+		try (OutputStream out = response.getCompressedOutputStream(request)) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException ex) {
+			throw new AJAXExecuteException("Не удалось отправить метрики", ex);
+		}
+	}
+/**
+ * Метрики всех обработчиков в виде JSON-объекта module.action -&gt; метрики; состояние исполнителя
+ * вынесенных обработчиков - под ключом offloadExecutor (имена обработчиков всегда содержат точку)
+ * @return JSONObject метрик
+ */
+	static JSONObject toJSON() {
+		final JSONObject result = new JSONObject();
+		final OffloadExecutor executor = AJAX.getOffloadExecutor();
+		if (null != executor) {
+			result.put("offloadExecutor", new JSONObject()
+				.put("virtual", executor.isVirtual())
+				.put("pinned", executor.getPinnedCount())
+				.put("rejected", executor.getRejectedCount()));
+		}
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			final HandlerMetrics metrics = entry.metrics;
+			final LatencyHistogram.Snapshot latency = metrics.latency.snapshot();
+			final JSONObject errors = new JSONObject();
+			metrics.errors.forEach((type, count) -> errors.put(type, count.sum()));
+			final JSONObject micros = new JSONObject()
+				.put("count", latency.count)
+				.put("mean", 0 == latency.count ? 0 : latency.sum / latency.count / 1000)
+				.put("max", latency.max / 1000);
+			for (int i = 0; i < QUANTILES.length; i++) {
+				micros.put(QUANTILE_NAMES[i], latency.percentile(QUANTILES[i]) / 1000);
+			}
+			final JSONObject handler = new JSONObject()
+				.put("calls", metrics.calls.sum())
+				.put("errors", errors)
+				.put("inFlight", metrics.inFlight.sum())
+				.put("bytesWritten", metrics.bytesWritten.sum())
+				.put("latencyMicros", micros);
+			if (null != entry.cacheStats) {
+				handler.put("cache", new JSONObject()
+					.put("hits", entry.cacheStats.hits.sum())
+					.put("staleHits", entry.cacheStats.staleHits.sum())
+					.put("misses", entry.cacheStats.misses.sum())
+					.put("evictions", entry.cacheStats.evictions.sum()));
+			}
+			if (null != entry.coalesced) {
+				handler.put("coalesced", entry.coalesced.sum());
+			}
+			if (null != entry.offload) {
+				final long executions = entry.offload.executions.sum();
+				handler.put("offload", new JSONObject()
+					.put("limit", entry.offload.limit)
+					.put("active", entry.offload.getActive())
+					.put("executions", executions)
+					.put("meanWaitMicros", 0 == executions ? 0 : entry.offload.waitNanos.sum() / executions / 1000)
+					.put("maxWaitMicros", entry.offload.maxWaitNanos.get() / 1000));
+			}
+			if (null != entry.limit) {
+				handler.put("limit", new JSONObject()
+					.put("active", entry.limit.getActive())
+					.put("waiting", entry.limit.getWaiting())
+					.put("rejectedByConcurrency", entry.limit.rejectedByConcurrency.sum())
+					.put("rejectedByRate", entry.limit.rejectedByRate.sum()));
+			}
+			result.put(entry.index, handler);
+		}
+		return result;
+	}
+/**
+ * Метрики всех обработчиков в текстовом формате Prometheus
+ * @return Текст метрик
+ */
+	static String toPrometheus() {
+		final StringBuilder sb = new StringBuilder(4096);
+		final OffloadExecutor executor = AJAX.getOffloadExecutor();
+		if (null != executor) {
+			sb.append("# HELP ajax_offload_virtual_threads Whether offloaded AJAX handlers run in virtual threads\n")
+				.append("# TYPE ajax_offload_virtual_threads gauge\n")
+				.append("ajax_offload_virtual_threads ").append(executor.isVirtual() ? 1 : 0).append('\n')
+				.append("# HELP ajax_offload_pinned_total Virtual threads pinned to their carrier thread\n")
+				.append("# TYPE ajax_offload_pinned_total counter\n")
+				.append("ajax_offload_pinned_total ").append(executor.getPinnedCount()).append('\n')
+				.append("# HELP ajax_offload_rejected_total Offloaded AJAX calls rejected because all threads were busy\n")
+				.append("# TYPE ajax_offload_rejected_total counter\n")
+				.append("ajax_offload_rejected_total ").append(executor.getRejectedCount()).append('\n');
+		}
+		sb.append("# HELP ajax_handler_calls_total AJAX handler invocations\n")
+			.append("# TYPE ajax_handler_calls_total counter\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			sample(sb, "ajax_handler_calls_total", entry, null, entry.metrics.calls.sum());
+		}
+		sb.append("# HELP ajax_handler_errors_total AJAX handler failures by exception type\n")
+			.append("# TYPE ajax_handler_errors_total counter\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			for (Map.Entry<String, LongAdder> error : entry.metrics.errors.entrySet()) {
+				sample(sb, "ajax_handler_errors_total", entry, "exception=\"" + escape(error.getKey()) + '"',
+					error.getValue().sum());
+			}
+		}
+		sb.append("# HELP ajax_handler_in_flight AJAX handler invocations in progress\n")
+			.append("# TYPE ajax_handler_in_flight gauge\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			sample(sb, "ajax_handler_in_flight", entry, null, entry.metrics.inFlight.sum());
+		}
+		sb.append("# HELP ajax_handler_coalesced_total AJAX handler calls joined to an identical call in flight\n")
+			.append("# TYPE ajax_handler_coalesced_total counter\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			if (null != entry.coalesced) {
+				sample(sb, "ajax_handler_coalesced_total", entry, null, entry.coalesced.sum());
+			}
+		}
+		sb.append("# HELP ajax_handler_rejected_total AJAX handler calls rejected by admission limits\n")
+			.append("# TYPE ajax_handler_rejected_total counter\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			if (null != entry.limit) {
+				sample(sb, "ajax_handler_rejected_total", entry, "reason=\"concurrency\"",
+					entry.limit.rejectedByConcurrency.sum());
+				sample(sb, "ajax_handler_rejected_total", entry, "reason=\"rate\"", entry.limit.rejectedByRate.sum());
+			}
+		}
+		sb.append("# HELP ajax_handler_offload_wait_seconds AJAX handler wait for an offload permit\n")
+			.append("# TYPE ajax_handler_offload_wait_seconds summary\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			if (null != entry.offload) {
+				sample(sb, "ajax_handler_offload_wait_seconds_sum", entry, null, entry.offload.waitNanos.sum() / 1e9);
+				sample(sb, "ajax_handler_offload_wait_seconds_count", entry, null, entry.offload.executions.sum());
+			}
+		}
+		sb.append("# HELP ajax_handler_offload_wait_max_seconds Longest AJAX handler wait for an offload permit\n")
+			.append("# TYPE ajax_handler_offload_wait_max_seconds gauge\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			if (null != entry.offload) {
+				sample(sb, "ajax_handler_offload_wait_max_seconds", entry, null, entry.offload.maxWaitNanos.get() / 1e9);
+			}
+		}
+		sb.append("# HELP ajax_handler_written_bytes_total Response bytes written by AJAX handler\n")
+			.append("# TYPE ajax_handler_written_bytes_total counter\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			sample(sb, "ajax_handler_written_bytes_total", entry, null, entry.metrics.bytesWritten.sum());
+		}
+		sb.append("# HELP ajax_handler_duration_seconds AJAX handler execution time\n")
+			.append("# TYPE ajax_handler_duration_seconds summary\n");
+		for (HandlerEntry entry : AJAX.getEntries()) {
+			final LatencyHistogram.Snapshot latency = entry.metrics.latency.snapshot();
+			for (double quantile : QUANTILES) {
+				sample(sb, "ajax_handler_duration_seconds", entry, "quantile=\"" + quantile + '"',
+					latency.percentile(quantile) / 1e9);
+			}
+			sample(sb, "ajax_handler_duration_seconds_sum", entry, null, latency.sum / 1e9);
+			sample(sb, "ajax_handler_duration_seconds_count", entry, null, latency.count);
+		}
+		return sb.toString();
+	}
+
+	private static void sample(StringBuilder sb, String name, HandlerEntry entry, String label, Object value) {
+		sb.append(name).append("{module=\"").append(escape(entry.module))
+			.append("\",action=\"").append(escape(entry.action)).append('"');
+		if (null != label) {
+			sb.append(',').append(label);
+		}
+		sb.append("} ").append(value).append('\n');
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+}
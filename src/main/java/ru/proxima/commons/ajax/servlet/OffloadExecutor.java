@@ -0,0 +1,134 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Исполнитель блокирующих AJAX-обработчиков вне потоков контейнера. На JVM с поддержкой
+ * виртуальных потоков каждая задача получает собственный виртуальный поток, иначе используется
+ * пул обычных потоков ограниченного размера без очереди: задача сверх него отклоняется,
+ * и клиент получает 503, т.к. каждая задача занимает поток и на время ожидания семафора
+ * обработчика. Для виртуальных потоков дополнительно отслеживаются события JFR о закреплении
+ * потока-носителя (jdk.VirtualThreadPinned) - блокировках внутри synchronized
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class OffloadExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(OffloadExecutor.class);
+
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final LongAdder pinned = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private AutoCloseable pinningMonitor;
+/**
+ * Конструктор
+ * @param maxThreads Наибольшее число обычных потоков, если виртуальные потоки недоступны
+ */
+	OffloadExecutor(int maxThreads) {
+		ExecutorService vtExecutor = null;
+		try {
+			vtExecutor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			logger.debug("Виртуальные потоки недоступны, используется пул потоков", ex);
+		}
+		virtual = null != vtExecutor;
+		executor = virtual ? vtExecutor : new ThreadPoolExecutor(0, Math.max(1, maxThreads), 60, TimeUnit.SECONDS,
+			new SynchronousQueue<>(), new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger();
+				@Override public Thread newThread(Runnable task) {
+					final Thread thread = new Thread(task, "ajax-offload-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		if (virtual) {
+			pinningMonitor = startPinningMonitor();
+		}
+	}
+/**
+ * Используются ли виртуальные потоки
+ * @return true, если задачи исполняются в виртуальных потоках
+ */
+	boolean isVirtual() {
+		return virtual;
+	}
+/**
+ * Число зафиксированных закреплений потока-носителя с момента запуска
+ * @return Количество событий jdk.VirtualThreadPinned
+ */
+	long getPinnedCount() {
+		return pinned.sum();
+	}
+/**
+ * Число задач, отклонённых из-за занятости всех потоков пула
+ * @return Количество отклонённых задач
+ */
+	long getRejectedCount() {
+		return rejected.sum();
+	}
+/**
+ * Исполнение задачи в отдельном потоке
+ * @param task Задача
+ * @throws RejectedExecutionException Все потоки пула заняты, либо исполнитель остановлен
+ */
+	void execute(Runnable task) throws RejectedExecutionException {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			rejected.increment();
+			throw ex;
+		}
+	}
+
+	void shutdown() {
+		if (null != pinningMonitor) {
+			try {
+				pinningMonitor.close();
+			} catch (Exception ex) {
+				logger.debug("Не удалось остановить наблюдение за закреплением потоков", ex);
+			}
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+/**
+ * Подписка на события jdk.VirtualThreadPinned через потоковый JFR (jdk.jfr.consumer.RecordingStream).
+ * Обращение рефлексивное, т.к. библиотека собирается для более ранних версий Java
+ * @return Запущенная запись JFR, либо null, если она недоступна
+ */
+	private AutoCloseable startPinningMonitor() {
+		try {
+			final Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+			final Object stream = streamClass.getConstructor().newInstance();
+			final Object settings = streamClass.getMethod("enable", String.class).invoke(stream, "jdk.VirtualThreadPinned");
+			settings.getClass().getMethod("withStackTrace").invoke(settings);
+			final Consumer<Object> onPinned = event -> {
+				pinned.increment();
+				logger.warn("Виртуальный поток AJAX-обработчика закреплён за потоком-носителем: {}", event);
+			};
+			final Method onEvent = streamClass.getMethod("onEvent", String.class, Consumer.class);
+			onEvent.invoke(stream, "jdk.VirtualThreadPinned", onPinned);
+			streamClass.getMethod("startAsync").invoke(stream);
+			return (AutoCloseable)stream;
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			logger.info("Наблюдение за закреплением виртуальных потоков недоступно: {}", ex.toString());
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.fileupload.util.LimitedInputStream;
+/**
+ * Чтение тела запроса с ограничением размера: превышение по заголовку Content-Length
+ * обнаруживается до чтения, а при его отсутствии - в процессе чтения. Тело, сжатое gzip или
+ * deflate (заголовок Content-Encoding), распаковывается, а ограничение применяется к распакованному
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class RequestBody {
+/**
+ * Тело запроса превышает допустимый размер
+ */
+	static final class TooLargeException extends IOException {
+		TooLargeException(long maxSize) {
+			super("Тело запроса превышает " + maxSize + " байт");
+		}
+	}
+/**
+ * Тело запроса сжато неподдерживаемым способом
+ */
+	static final class UnsupportedCodingException extends IOException {
+		UnsupportedCodingException(String coding) {
+			super("Неподдерживаемое сжатие тела запроса: " + coding);
+		}
+	}
+
+	private RequestBody() {}
+/**
+ * Передаются ли параметры JSON-документом в теле POST-запроса (Content-Type: application/json)
+ * @param request Запрос
+ * @return true, если тело запроса - JSON
+ */
+	static boolean isJSON(HttpServletRequest request) {
+		final String contentType = request.getContentType();
+		return "POST".equals(request.getMethod()) && null != contentType
+			&& contentType.regionMatches(true, 0, "application/json", 0, "application/json".length());
+	}
+/**
+ * Открывает тело запроса как поток символов UTF-8 с ограничением размера
+ * @param request Запрос
+ * @param maxSize Допустимый размер тела в байтах
+ * @return Поток символов тела запроса
+ * @throws TooLargeException Заявленный размер тела превышает допустимый
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ */
+	static Reader openReader(HttpServletRequest request, long maxSize) throws IOException {
+		return new InputStreamReader(open(request, maxSize), StandardCharsets.UTF_8);
+	}
+/**
+ * Открывает тело запроса как поток байт с ограничением размера
+ * @param request Запрос
+ * @param maxSize Допустимый размер тела в байтах
+ * @return Поток байт тела запроса
+ * @throws TooLargeException Заявленный размер тела превышает допустимый
+ * @throws IOException Обнаружена ошибка ввода-вывода
+ */
+	static InputStream open(HttpServletRequest request, long maxSize) throws IOException {
+		if (request.getContentLengthLong() > maxSize) {
+			throw new TooLargeException(maxSize);
+		}
+		final String coding = request.getHeader("Content-Encoding");
+		InputStream body = request.getInputStream();
+		if ("gzip".equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+			body = new GZIPInputStream(body, 8192);
+		} else if ("deflate".equalsIgnoreCase(coding)) {
+			body = new InflaterInputStream(body);
+		} else if (null != coding && !"identity".equalsIgnoreCase(coding)) {
+			throw new UnsupportedCodingException(coding);
+		}
+		return new LimitedInputStream(body, maxSize) {
+			@Override protected void raiseError(long max, long count) throws IOException {
+				throw new TooLargeException(max);
+			}
+		};
+	}
+/**
+ * Код ответа для неудачного чтения тела запроса. Причина ищется по всей цепочке,
+ * т.к. разборщик JSON оборачивает ошибки ввода-вывода в собственное исключение
+ * @param th Исключение
+ * @return 413 при превышении размера, 415 при неподдерживаемом сжатии, иначе 400
+ */
+	static int getErrorStatus(Throwable th) {
+		for (Throwable cause = th; null != cause; cause = cause.getCause()) {
+			if (cause instanceof TooLargeException) {
+				return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+			} else if (cause instanceof UnsupportedCodingException) {
+				return HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE;
+			}
+		}
+		return HttpServletResponse.SC_BAD_REQUEST;
+	}
+
+}
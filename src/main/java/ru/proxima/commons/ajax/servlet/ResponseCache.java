@@ -0,0 +1,150 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXHandler;
+/**
+ * Ограниченный по объёму памяти LRU-кэш сериализованных ответов идемпотентных JSON-обработчиков.
+ * Ключом служит обработчик и канонический вид его параметров без {@link AJAXHandler#getIgnoredParams()}.
+ * Устаревшая запись может отдаваться в течение дополнительного времени, пока единственное фоновое
+ * обновление получает новый ответ
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class ResponseCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResponseCache.class);
+/**
+ * Оценка накладных расходов на одну запись кэша в байтах
+ */
+	private static final int ENTRY_OVERHEAD = 96;
+/**
+ * Получение ответа обработчика при промахе кэша (также используется {@link SingleFlight})
+ */
+	interface Loader {
+		SerializedBody load() throws AJAXExecuteException;
+	}
+/**
+ * Статистика кэша одного обработчика
+ */
+	static final class Stats {
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder staleHits = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+	}
+
+	private static final class Cached {
+		final SerializedBody body;
+		final long expires;
+		final long staleUntil;
+		final int size;
+		final Stats stats;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Cached(String key, SerializedBody body, long now, HandlerEntry entry) {
+			this.body = body;
+			this.expires = now + TimeUnit.MILLISECONDS.toNanos(entry.handler.getCacheTTL());
+			this.staleUntil = expires + TimeUnit.MILLISECONDS.toNanos(entry.handler.getCacheStaleTTL());
+			this.size = body.bytes.length + 2 * key.length() + ENTRY_OVERHEAD;
+			this.stats = entry.cacheStats;
+		}
+	}
+
+	private final LinkedHashMap<String, Cached> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private final long maxBytes;
+	private long bytes;
+	private final ThreadPoolExecutor refresher;
+/**
+ * Конструктор
+ * @param maxBytes Допустимый суммарный объём записей в байтах
+ */
+	ResponseCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.refresher = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64), task -> {
+			final Thread thread = new Thread(task, "ajax-cache-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.refresher.allowCoreThreadTimeOut(true);
+	}
+/**
+ * Получение ответа обработчика из кэша, либо его вычисление и сохранение
+ * @param entry Запись реестра кэшируемого обработчика
+ * @param key Ключ вызова (обработчик и канонический вид параметров)
+ * @param loader Получение ответа обработчика
+ * @return Сериализованный ответ
+ * @throws AJAXExecuteException Работа AJAX-обработчика завершилась со сбоем
+ */
+	SerializedBody get(HandlerEntry entry, String key, Loader loader) throws AJAXExecuteException {
+		final long now = System.nanoTime();
+		final Cached cached;
+		synchronized (this) {
+			cached = entries.get(key);
+		}
+
+		if (null != cached && now - cached.expires < 0) {
+			entry.cacheStats.hits.increment();
+			return cached.body;
+		} else if (null != cached && now - cached.staleUntil < 0) {
+			entry.cacheStats.staleHits.increment();
+			if (cached.refreshing.compareAndSet(false, true)) {
+				refresh(entry, key, loader, cached);
+			}
+			return cached.body;
+		}
+
+		entry.cacheStats.misses.increment();
+		final SerializedBody body = loader.load();
+		put(key, new Cached(key, body, System.nanoTime(), entry));
+		return body;
+	}
+
+	void shutdown() {
+		refresher.shutdownNow();
+	}
+
+	private void refresh(HandlerEntry entry, String key, Loader loader, Cached cached) {
+		try {
+			refresher.execute(() -> {
+				try {
+					final SerializedBody body = loader.load();
+					put(key, new Cached(key, body, System.nanoTime(), entry));
+				} catch (AJAXExecuteException | RuntimeException ex) {
+					logger.warn("Не удалось обновить кэш AJAX-обработчика " + entry.index, ex);
+				} finally {
+					cached.refreshing.set(false);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			cached.refreshing.set(false);
+		}
+	}
+
+	private synchronized void put(String key, Cached cached) {
+		if (cached.size > maxBytes / 8) {
+			return;
+		}
+		final Cached previous = entries.put(key, cached);
+		if (null != previous) {
+			bytes -= previous.size;
+		}
+		bytes += cached.size;
+		for (Iterator<Map.Entry<String, Cached>> it = entries.entrySet().iterator(); bytes > maxBytes && it.hasNext();) {
+			final Cached eldest = it.next().getValue();
+			it.remove();
+			bytes -= eldest.size;
+			eldest.stats.evictions.increment();
+		}
+	}
+
+}
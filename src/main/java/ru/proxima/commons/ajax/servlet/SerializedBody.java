@@ -0,0 +1,123 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import ru.proxima.commons.ajax.ResponseCompression;
+/**
+ * Сериализованный в UTF-8 ответ JSON-обработчика, его строгий валидатор ETag и сжатое
+ * представление, вычисляемые при первом обращении (кэшированный ответ сжимается однократно)
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class SerializedBody {
+
+	final byte[] bytes;
+	private volatile String etag;
+	private volatile Encoded encoded;
+
+	private static final class Encoded {
+		final String encoding;
+		final byte[] bytes;
+
+		Encoded(String encoding, byte[] bytes) {
+			this.encoding = encoding;
+			this.bytes = bytes;
+		}
+	}
+
+	SerializedBody(byte[] bytes) {
+		this.bytes = bytes;
+	}
+/**
+ * Сериализация результата обработчика
+ * @param result Результат обработчика (чаще всего JSONObject)
+ * @return Сериализованный ответ
+ */
+	static SerializedBody of(Object result) {
+		return new SerializedBody(String.valueOf(result).getBytes(StandardCharsets.UTF_8));
+	}
+/**
+ * Строгий ETag, вычисленный по содержимому ответа
+ * @return Значение заголовка ETag в кавычках
+ */
+	String etag() {
+		String result = etag;
+		if (null == result) {
+			try {
+				final byte[] digest = MessageDigest.getInstance("MD5").digest(bytes);
+				result = '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + '"';
+			} catch (NoSuchAlgorithmException ex) {
+				throw new IllegalStateException("MD5 недоступен", ex);
+			}
+			etag = result;
+		}
+		return result;
+	}
+/**
+ * Сжатое представление ответа; последнее вычисленное представление запоминается
+ * @param encoding Кодировка сжатия
+ * @return Сжатые байты ответа
+ */
+	byte[] encoded(String encoding) {
+		Encoded result = encoded;
+		if (null == result || !result.encoding.equals(encoding)) {
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4 + 64);
+			try (OutputStream out = ResponseCompression.wrap(buffer, encoding)) {
+				out.write(bytes);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			result = new Encoded(encoding, buffer.toByteArray());
+			encoded = result;
+		}
+		return result.bytes;
+	}
+/**
+ * ETag сжатого представления: к значению добавляется суффикс кодировки
+ * @param etag ETag несжатого ответа в кавычках
+ * @param encoding Кодировка сжатия
+ * @return ETag сжатого представления в кавычках
+ */
+	static String encodedETag(String etag, String encoding) {
+		return etag.substring(0, etag.length() - 1) + '-' + encoding + '"';
+	}
+/**
+ * Проверка заголовка If-None-Match (слабое сравнение по RFC 7232, при котором
+ * сжатое и несжатое представления одного ответа считаются совпадающими)
+ * @param ifNoneMatch Значение заголовка If-None-Match, может быть null
+ * @param etag Текущий ETag в кавычках
+ * @return true, если у клиента уже есть актуальная версия ответа
+ */
+	static boolean matches(String ifNoneMatch, String etag) {
+		if (null == ifNoneMatch) {
+			return false;
+		}
+		final String base = stripEncoding(etag);
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if ("*".equals(candidate) || stripEncoding(candidate).equals(base)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String stripEncoding(String etag) {
+		for (String encoding : new String[] {ResponseCompression.GZIP, ResponseCompression.DEFLATE}) {
+			final String suffix = "-" + encoding + '"';
+			if (etag.endsWith(suffix)) {
+				return etag.substring(0, etag.length() - suffix.length()) + '"';
+			}
+		}
+		return etag;
+	}
+
+}
@@ -0,0 +1,66 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import ru.proxima.commons.ajax.AJAXBusinessException;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+/**
+ * Объединение одновременных одинаковых вызовов: пока вызов с данным ключом исполняется,
+ * остальные вызовы с тем же ключом не исполняют обработчик, а ожидают и получают его
+ * сериализованный ответ, либо его ошибку. Завершённый вызов сразу забывается, поэтому
+ * повторный вызов после него исполняет обработчик заново (для хранения ответов есть {@link ResponseCache})
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class SingleFlight {
+
+	private final ConcurrentHashMap<String, CompletableFuture<SerializedBody>> calls = new ConcurrentHashMap<>();
+/**
+ * Получение ответа: исполнение вызова, либо присоединение к уже исполняемому с тем же ключом
+ * @param entry Запись реестра обработчика
+ * @param key Ключ вызова (обработчик и канонический вид параметров)
+ * @param loader Исполнение обработчика
+ * @return Сериализованный ответ
+ * @throws AJAXExecuteException Работа AJAX-обработчика завершилась со сбоем
+ */
+	SerializedBody get(HandlerEntry entry, String key, ResponseCache.Loader loader) throws AJAXExecuteException {
+		final CompletableFuture<SerializedBody> own = new CompletableFuture<>();
+		final CompletableFuture<SerializedBody> running = calls.putIfAbsent(key, own);
+		if (null != running) {
+			entry.coalesced.increment();
+			return join(running);
+		}
+		try {
+			final SerializedBody body = loader.load();
+			own.complete(body);
+			return body;
+		} catch (AJAXExecuteException | RuntimeException | Error ex) {
+			own.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			calls.remove(key, own);
+		}
+	}
+/**
+ * Ожидание исполняемого вызова. Его ошибка передаётся с тем же сообщением, но в собственном
+ * исключении, чтобы в журнале было видно, что вызов был присоединён к чужому исполнению;
+ * ошибка прикладной логики неизменяема и передаётся как есть, сохраняя код для клиента
+ * @param running Исполняемый вызов
+ * @return Сериализованный ответ
+ * @throws AJAXExecuteException Исполняемый вызов завершился со сбоем, либо ожидание прервано
+ */
+	private static SerializedBody join(CompletableFuture<SerializedBody> running) throws AJAXExecuteException {
+		try {
+			return running.get();
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof AJAXBusinessException) {
+				throw (AJAXBusinessException)ex.getCause();
+			}
+			throw new AJAXExecuteException(ex.getCause().getLocalizedMessage(), ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new AJAXExecuteException("Ожидание объединённого вызова прервано", ex);
+		}
+	}
+
+}
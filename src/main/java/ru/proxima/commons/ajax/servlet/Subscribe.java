@@ -0,0 +1,85 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import ru.proxima.commons.ajax.AJAXBusinessException;
+import ru.proxima.commons.ajax.AJAXExecuteException;
+import ru.proxima.commons.ajax.AJAXTopics;
+import ru.proxima.commons.ajax.impl.AJAXHandlerJSONAsync;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Встроенный обработчик core.Subscribe: длинный опрос концентратора тем ({@link AJAXTopics}).
+ * Параметры: id - идентификатор подписчика из предыдущего ответа (при первом опросе не задаётся),
+ * topics - массив тем подписки (если не задан, остаются прежние). Ответ {id, messages: [{topic, data}],
+ * dropped} отправляется, как только у подписчика есть сообщения, либо пустым по истечении времени
+ * ожидания (параметр сервлета topicPollTimeout). Если id в ответе изменился, подписчик был удалён
+ * за долгим отсутствием опросов, и клиенту следует заново получить актуальное состояние.
+ * Каждая тема нового набора проверяется установленной приложением проверкой права подписки
+ * ({@link AJAXTopics#setFilter(AJAXTopics.Filter)}); без неё подписка запрещена. Подписчик создаётся
+ * только опросом с темами, разрешёнными проверкой: опрос без тем с неизвестным id получает ошибку
+ * topics_required, и клиенту следует повторить его с темами. Число подписчиков одного клиента
+ * (сессии, либо адреса без сессии) ограничено параметром сервлета topicMaxSubscribersPerClient
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public final class Subscribe extends AJAXHandlerJSONAsync {
+/**
+ * Запас срока запроса сверх времени ожидания опроса, чтобы пустой ответ
+ * отправлял концентратор, а не сервлет по истечении срока
+ */
+	private static final long TIMEOUT_MARGIN = 5000;
+/**
+ * Ошибка опроса при подписке на недоступную клиенту тему
+ */
+	private static final AJAXBusinessException FORBIDDEN = new AJAXBusinessException("topic_forbidden",
+		"Subscription to the topic is not allowed", false, 403);
+
+	private TopicHub hub;
+
+	@Override protected void init() throws AJAXExecuteException {
+		hub = getContext().getAttribute(AJAXTopics.ATTRIBUTE, TopicHub.class);
+		if (null == hub) {
+			throw new AJAXExecuteException("Концентратор тем не инициализирован");
+		}
+	}
+/**
+ * Срок опроса: время ожидания концентратора с запасом
+ * @return Время в миллисекундах
+ */
+	@Override public long getTimeout() {
+		return hub.getPollTimeout() + TIMEOUT_MARGIN;
+	}
+
+	@Override public CompletionStage<Object> processAsync(JSONObject params) throws AJAXExecuteException {
+		final JSONArray topics = params.optJSONArray("topics");
+		final HttpServletRequest request = AJAX.getAsyncRequest();
+		List<String> names = null;
+		if (null != topics) {
+			names = new ArrayList<>(topics.length());
+			for (int i = 0; i < topics.length(); i++) {
+				final String name = topics.optString(i, null);
+				if (null == name) {
+					throw new AJAXExecuteException("Topic name must be a string");
+				}
+				if (!hub.isAllowed(request, name)) {
+					throw FORBIDDEN;
+				}
+				names.add(name);
+			}
+		}
+		return hub.poll(params.optString("id", null), names, null == request ? null : getClient(request));
+	}
+/**
+ * Клиент, за которым учитываются подписчики: сессия, если она есть, иначе адрес
+ * @param request Запрос опроса
+ * @return Ключ клиента
+ */
+	private static String getClient(HttpServletRequest request) {
+		final HttpSession session = request.getSession(false);
+		return null == session ? "addr:" + request.getRemoteAddr() : "session:" + session.getId();
+	}
+
+}
@@ -0,0 +1,84 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.servlet.http.HttpServletResponse;
+import ru.proxima.commons.ajax.ResponseCompression;
+/**
+ * Поток ответа, накапливающий первые байты до порога сжатия. Короткий ответ отправляется
+ * несжатым с заголовком Content-Length, а при превышении порога включается сжатие.
+ * Явный flush() до превышения порога фиксирует ответ несжатым: накопленные байты
+ * и весь последующий вывод отправляются как есть. Накопленные байты попадают к клиенту
+ * только при flush() или close(), поэтому сервлет закрывает поток и при ошибке обработчика:
+ * частичный вывод отправляется так же, как через PrintWriter контейнера
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class ThresholdOutputStream extends OutputStream {
+
+	private final HttpServletResponse response;
+	private final String encoding;
+	private final byte[] buffer;
+	private int count;
+	private OutputStream target;
+	private boolean closed;
+/**
+ * Конструктор
+ * @param response Ответ
+ * @param encoding Согласованная с клиентом кодировка сжатия
+ * @param threshold Размер ответа в байтах, начиная с которого он сжимается
+ */
+	ThresholdOutputStream(HttpServletResponse response, String encoding, int threshold) {
+		this.response = response;
+		this.encoding = encoding;
+		this.buffer = new byte[threshold];
+	}
+
+	@Override public void write(int b) throws IOException {
+		if (null == target && count < buffer.length) {
+			buffer[count++] = (byte)b;
+		} else {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+	}
+
+	@Override public void write(byte[] b, int off, int len) throws IOException {
+		if (null == target && count + len <= buffer.length) {
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+			return;
+		}
+		if (null == target) {
+			response.setHeader("Content-Encoding", encoding);
+			target = ResponseCompression.wrap(response.getOutputStream(), encoding);
+			target.write(buffer, 0, count);
+		}
+		target.write(b, off, len);
+	}
+
+	@Override public void flush() throws IOException {
+		if (closed) {
+			return;
+		}
+		if (null == target) {
+			target = response.getOutputStream();
+			target.write(buffer, 0, count);
+		}
+		target.flush();
+	}
+
+	@Override public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (null != target) {
+			target.close();
+		} else {
+			response.setContentLength(count);
+			final OutputStream out = response.getOutputStream();
+			out.write(buffer, 0, count);
+			out.close();
+		}
+	}
+
+}
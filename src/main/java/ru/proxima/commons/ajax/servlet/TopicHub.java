@@ -0,0 +1,412 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import ru.proxima.commons.ajax.AJAXBusinessException;
+import ru.proxima.commons.ajax.AJAXTopics;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+/**
+ * Реализация концентратора тем. У каждого подписчика своя ограниченная очередь недоставленных
+ * сообщений: сообщения с одинаковым ключом объединения заменяют друг друга, а при переполнении
+ * отбрасываются самые старые (клиент узнаёт об этом по полю dropped ответа). Ожидающий опрос
+ * подписчика - это лишь незавершённый CompletableFuture, по которому сервлет держит приостановленный
+ * AsyncContext, поэтому простаивающие подписчики занимают память, но не потоки. Один служебный поток
+ * завершает опросы по истечении времени ожидания и удаляет подписчиков, переставших опрашивать.
+ * Число подписчиков ограничено в целом и для одного клиента (сессии, либо адреса без сессии),
+ * сверх этого новые подписчики отклоняются до удаления простаивающих. Место подписчика резервируется
+ * атомарно до его создания, поэтому параллельные первые опросы не превышают ограничений
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+final class TopicHub implements AJAXTopics {
+
+	private static final SecureRandom random = new SecureRandom();
+/**
+ * Ошибка опроса при достижении наибольшего числа подписчиков
+ */
+	private static final AJAXBusinessException FULL = new AJAXBusinessException("topics_full",
+		"Too many topic subscribers", true, 503);
+/**
+ * Ошибка опроса при достижении наибольшего числа подписчиков одного клиента
+ */
+	private static final AJAXBusinessException CLIENT_FULL = new AJAXBusinessException("topics_client_full",
+		"Too many topic subscribers for the client", true, 429);
+/**
+ * Ошибка опроса, который создал бы подписчика без тем
+ */
+	private static final AJAXBusinessException NO_TOPICS = new AJAXBusinessException("topics_required",
+		"A new topic subscriber requires at least one topic", false, 400);
+
+	private final ConcurrentHashMap<String, Set<Subscriber>> topics = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+/**
+ * Число подписчиков по клиентам
+ */
+	private final ConcurrentHashMap<String, Integer> clients = new ConcurrentHashMap<>();
+/**
+ * Число подписчиков вместе с зарезервированными местами
+ */
+	private final AtomicInteger reserved = new AtomicInteger();
+	private final int queueSize;
+	private final long pollTimeoutMillis;
+	private final int maxSubscribers;
+	private final int maxClientSubscribers;
+	private volatile Filter filter;
+	private final ScheduledThreadPoolExecutor scheduler;
+/**
+ * Число опубликованных сообщений
+ */
+	final LongAdder published = new LongAdder();
+/**
+ * Число сообщений, отброшенных из-за переполнения очередей подписчиков
+ */
+	final LongAdder dropped = new LongAdder();
+/**
+ * Опубликованное сообщение, общее для всех подписчиков темы
+ */
+	private static final class Message {
+
+		final String topic;
+		final String key;
+		final Object data;
+
+		Message(String topic, String key, Object data) {
+			this.topic = topic;
+			this.key = key;
+			this.data = data;
+		}
+
+	}
+/**
+ * Подписчик: набор тем, очередь недоставленных сообщений и ожидающий опрос
+ */
+	private final class Subscriber {
+
+		final String id;
+		final String client;
+		private final LinkedHashMap<Object, Message> queue = new LinkedHashMap<>();
+		private Set<String> subscribed = Collections.emptySet();
+		private long lost;
+		private CompletableFuture<Object> waiting;
+		private ScheduledFuture<?> timer;
+		private volatile long lastPoll = System.nanoTime();
+
+		Subscriber(String id, String client) {
+			this.id = id;
+			this.client = client;
+		}
+
+		void offer(Message message) {
+			final CompletableFuture<Object> ready;
+			final JSONObject response;
+			synchronized (this) {
+				final Object key = null == message.key ? new Object() : message.topic + '\u0000' + message.key;
+				queue.remove(key);
+				queue.put(key, message);
+				if (queue.size() > queueSize) {
+					final Iterator<Message> eldest = queue.values().iterator();
+					eldest.next();
+					eldest.remove();
+					lost++;
+					dropped.increment();
+				}
+				ready = detach();
+				if (null == ready) {
+					return;
+				}
+				response = take();
+			}
+			ready.complete(response);
+		}
+
+		CompletableFuture<Object> poll() {
+			final CompletableFuture<Object> previous;
+			final CompletableFuture<Object> result;
+			synchronized (this) {
+				lastPoll = System.nanoTime();
+				previous = detach();
+				if (!queue.isEmpty()) {
+					return supersede(previous, CompletableFuture.completedFuture(take()));
+				}
+				result = new CompletableFuture<>();
+				waiting = result;
+				timer = scheduler.schedule(() -> expire(result), pollTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			result.whenComplete((value, th) -> release(result));
+			return supersede(previous, result);
+		}
+/**
+ * Завершение вытесненного опроса пустым ответом: одновременно ожидает только последний опрос
+ */
+		private CompletableFuture<Object> supersede(CompletableFuture<Object> previous, CompletableFuture<Object> result) {
+			if (null != previous) {
+				previous.complete(response(new JSONArray(), 0));
+			}
+			return result;
+		}
+/**
+ * Завершение ожидающего опроса пустым ответом по истечении времени ожидания
+ * @param poll Опрос, для которого истекло время, либо null для любого ожидающего опроса
+ */
+		void expire(CompletableFuture<Object> poll) {
+			final CompletableFuture<Object> expired;
+			synchronized (this) {
+				if (null == waiting || null != poll && waiting != poll) {
+					return;
+				}
+				expired = detach();
+			}
+			expired.complete(response(new JSONArray(), 0));
+		}
+/**
+ * Снятие опроса, завершённого иначе (например, отменённого сервлетом по сроку запроса)
+ */
+		private synchronized void release(CompletableFuture<Object> poll) {
+			if (waiting == poll) {
+				detach();
+			}
+			lastPoll = System.nanoTime();
+		}
+/**
+ * Снятие ожидающего опроса и его таймера. Вызывается под блокировкой подписчика
+ * @return Ожидавший опрос, либо null
+ */
+		private CompletableFuture<Object> detach() {
+			final CompletableFuture<Object> result = waiting;
+			if (null != result) {
+				waiting = null;
+				timer.cancel(false);
+				timer = null;
+			}
+			return result;
+		}
+/**
+ * Ответ на опрос со всеми недоставленными сообщениями; очередь очищается.
+ * Вызывается под блокировкой подписчика
+ */
+		private JSONObject take() {
+			final JSONArray messages = new JSONArray();
+			for (Message message : queue.values()) {
+				messages.put(new JSONObject().put("topic", message.topic).put("data", message.data));
+			}
+			queue.clear();
+			final JSONObject result = response(messages, lost);
+			lost = 0;
+			return result;
+		}
+
+		private JSONObject response(JSONArray messages, long droppedCount) {
+			return new JSONObject()
+				.put("id", id)
+				.put("messages", messages)
+				.put("dropped", droppedCount);
+		}
+
+		synchronized boolean isIdle(long now, long idleNanos) {
+			return null == waiting && now - lastPoll > idleNanos;
+		}
+
+	}
+/**
+ * Конструктор
+ * @param queueSize Наибольшее число недоставленных сообщений подписчика
+ * @param pollTimeoutMillis Время ожидания опроса в миллисекундах, по истечении которого
+ * отправляется пустой ответ
+ * @param maxSubscribers Наибольшее число подписчиков
+ * @param maxClientSubscribers Наибольшее число подписчиков одного клиента
+ */
+	TopicHub(int queueSize, long pollTimeoutMillis, int maxSubscribers, int maxClientSubscribers) {
+		this.queueSize = Math.max(1, queueSize);
+		this.pollTimeoutMillis = Math.max(1, pollTimeoutMillis);
+		this.maxSubscribers = Math.max(1, maxSubscribers);
+		this.maxClientSubscribers = Math.max(1, maxClientSubscribers);
+		this.scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+			final Thread thread = new Thread(task, "ajax-topics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		this.scheduler.scheduleWithFixedDelay(this::sweep, this.pollTimeoutMillis, this.pollTimeoutMillis,
+			TimeUnit.MILLISECONDS);
+	}
+
+	@Override public void publish(String topic, Object message) {
+		publish(topic, null, message);
+	}
+
+	@Override public void publish(String topic, String key, Object message) {
+		published.increment();
+		final Set<Subscriber> targets = topics.get(topic);
+		if (null == targets) {
+			return;
+		}
+		final Message shared = new Message(topic, key, message);
+		targets.forEach(subscriber -> subscriber.offer(shared));
+	}
+
+	@Override public int getSubscriberCount(String topic) {
+		final Set<Subscriber> targets = topics.get(topic);
+		return null == targets ? 0 : targets.size();
+	}
+
+	@Override public void setFilter(Filter filter) {
+		this.filter = filter;
+	}
+/**
+ * Допустима ли подписка на тему по установленной проверке права подписки
+ * @param request Запрос опроса
+ * @param topic Тема
+ * @return false, если подписка не разрешена или проверка не установлена
+ */
+	boolean isAllowed(HttpServletRequest request, String topic) {
+		final Filter current = filter;
+		return null != current && null != request && current.isAllowed(request, topic);
+	}
+/**
+ * Время ожидания опроса
+ * @return Время в миллисекундах
+ */
+	long getPollTimeout() {
+		return pollTimeoutMillis;
+	}
+/**
+ * Число подписчиков
+ * @return Количество подписчиков, в том числе не ожидающих опроса
+ */
+	int size() {
+		return subscribers.size();
+	}
+/**
+ * Опрос подписчика: ответ с недоставленными сообщениями, если они есть, иначе ожидание
+ * публикации не дольше времени ожидания опроса. Неизвестный или не заданный идентификатор
+ * создаёт нового подписчика, только если заданы темы подписки; его идентификатор возвращается
+ * в ответе в поле id. Право подписки на темы проверяется вызывающим
+ * ({@link #isAllowed(HttpServletRequest, String)}) до опроса, поэтому подписчик создаётся лишь
+ * после того, как проверка разрешила хотя бы одну тему
+ * @param id Идентификатор подписчика из предыдущего ответа, либо null
+ * @param names Темы подписки, либо null, чтобы оставить прежние
+ * @param client Клиент (сессия или адрес), за которым учитывается новый подписчик
+ * @return Отложенный ответ {id, messages: [{topic, data}], dropped}
+ * @throws AJAXBusinessException Новому подписчику не заданы темы, либо достигнуто наибольшее
+ * число подписчиков в целом или у клиента
+ */
+	CompletableFuture<Object> poll(String id, Collection<String> names, String client) throws AJAXBusinessException {
+		Subscriber subscriber = null == id ? null : subscribers.get(id);
+		if (null == subscriber) {
+			if (null == names || names.isEmpty()) {
+				throw NO_TOPICS;
+			}
+			final String key = null == client ? "" : client;
+			reserve(key);
+			subscriber = new Subscriber(newId(), key);
+			subscribers.put(subscriber.id, subscriber);
+		}
+		if (null != names) {
+			subscribe(subscriber, new HashSet<>(names));
+		}
+		return subscriber.poll();
+	}
+
+	void shutdown() {
+		scheduler.shutdownNow();
+		subscribers.values().forEach(subscriber -> subscriber.expire(null));
+	}
+
+/**
+ * Резервирование места нового подписчика в общем ограничении и в ограничении клиента
+ * @param client Клиент
+ * @throws AJAXBusinessException Мест нет
+ */
+	private void reserve(String client) throws AJAXBusinessException {
+		if (reserved.incrementAndGet() > maxSubscribers) {
+			reserved.decrementAndGet();
+			throw FULL;
+		}
+		final boolean[] admitted = {false};
+		clients.compute(client, (key, count) -> {
+			final int current = null == count ? 0 : count;
+			if (current >= maxClientSubscribers) {
+				return count;
+			}
+			admitted[0] = true;
+			return current + 1;
+		});
+		if (!admitted[0]) {
+			reserved.decrementAndGet();
+			throw CLIENT_FULL;
+		}
+	}
+/**
+ * Освобождение места удалённого подписчика
+ * @param client Клиент
+ */
+	private void vacate(String client) {
+		clients.computeIfPresent(client, (key, count) -> count > 1 ? count - 1 : null);
+		reserved.decrementAndGet();
+	}
+
+	private static String newId() {
+		final byte[] bytes = new byte[16];
+		random.nextBytes(bytes);
+		final StringBuilder sb = new StringBuilder(32);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private void subscribe(Subscriber subscriber, Set<String> names) {
+		final Set<String> previous;
+		synchronized (subscriber) {
+			previous = subscriber.subscribed;
+			subscriber.subscribed = names;
+		}
+		previous.stream().filter(topic -> !names.contains(topic)).forEach(topic -> unsubscribe(subscriber, topic));
+		names.stream().filter(topic -> !previous.contains(topic)).forEach(topic -> topics.compute(topic, (name, set) -> {
+			final Set<Subscriber> result = null == set ? ConcurrentHashMap.newKeySet() : set;
+			result.add(subscriber);
+			return result;
+		}));
+	}
+
+	private void unsubscribe(Subscriber subscriber, String topic) {
+		topics.computeIfPresent(topic, (name, set) -> {
+			set.remove(subscriber);
+			return set.isEmpty() ? null : set;
+		});
+	}
+/**
+ * Удаление подписчиков, не опрашивавших концентратор дольше трёх времён ожидания опроса
+ */
+	private void sweep() {
+		final long now = System.nanoTime();
+		final long idle = TimeUnit.MILLISECONDS.toNanos(3 * pollTimeoutMillis);
+		subscribers.values().removeIf(subscriber -> {
+			if (!subscriber.isIdle(now, idle)) {
+				return false;
+			}
+			final Set<String> names;
+			synchronized (subscriber) {
+				names = subscriber.subscribed;
+				subscriber.subscribed = Collections.emptySet();
+			}
+			names.forEach(topic -> unsubscribe(subscriber, topic));
+			vacate(subscriber.client);
+			return true;
+		});
+	}
+
+}
@@ -0,0 +1,74 @@
+package ru.proxima.commons.ajax;
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+/**
+ * Проверка разбора заголовка Range для файла длиной 1000 байт
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class FileResponseTest {
+
+	private static final long LENGTH = 1000;
+
+	private static long[] single(String header) {
+		final List<long[]> ranges = FileResponse.parseRanges(header, LENGTH);
+		assertEquals(1, ranges.size());
+		return ranges.get(0);
+	}
+
+	@Test public void closedRange() {
+		assertArrayEquals(new long[] {0, 499}, single("bytes=0-499"));
+	}
+
+	@Test public void openRange() {
+		assertArrayEquals(new long[] {500, 999}, single("bytes=500-"));
+	}
+
+	@Test public void suffixRange() {
+		assertArrayEquals(new long[] {800, 999}, single("bytes=-200"));
+		assertArrayEquals(new long[] {0, 999}, single("bytes=-5000"));
+	}
+
+	@Test public void lastBytePastEndIsClipped() {
+		assertArrayEquals(new long[] {900, 999}, single("bytes=900-5000"));
+	}
+
+	@Test public void multipleRanges() {
+		final List<long[]> ranges = FileResponse.parseRanges("bytes=0-9, 20-29 ,-10", LENGTH);
+		assertEquals(3, ranges.size());
+		assertArrayEquals(new long[] {0, 9}, ranges.get(0));
+		assertArrayEquals(new long[] {20, 29}, ranges.get(1));
+		assertArrayEquals(new long[] {990, 999}, ranges.get(2));
+	}
+
+	@Test public void unsatisfiableRangesGiveEmptyList() {
+		assertTrue(FileResponse.parseRanges("bytes=1000-", LENGTH).isEmpty());
+		assertTrue(FileResponse.parseRanges("bytes=-0", LENGTH).isEmpty());
+	}
+
+	@Test public void unsatisfiableRangeIsSkippedAmongOthers() {
+		final List<long[]> ranges = FileResponse.parseRanges("bytes=2000-3000,0-0", LENGTH);
+		assertEquals(1, ranges.size());
+		assertArrayEquals(new long[] {0, 0}, ranges.get(0));
+	}
+
+	@Test public void malformedHeaderGivesNull() {
+		assertNull(FileResponse.parseRanges("items=0-1", LENGTH));
+		assertNull(FileResponse.parseRanges("bytes=5", LENGTH));
+		assertNull(FileResponse.parseRanges("bytes=a-b", LENGTH));
+		assertNull(FileResponse.parseRanges("bytes=9-5", LENGTH));
+	}
+
+	@Test public void tooManyRangesGiveNull() {
+		final StringBuilder header = new StringBuilder("bytes=0-0");
+		for (int i = 1; i <= 16; i++) {
+			header.append(',').append(i).append('-').append(i);
+		}
+		assertNull(FileResponse.parseRanges(header.toString(), LENGTH));
+	}
+
+}
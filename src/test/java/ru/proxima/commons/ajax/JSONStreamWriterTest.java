@@ -0,0 +1,97 @@
+package ru.proxima.commons.ajax;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+/**
+ * Проверка потоковой записи JSON: вложенность, разделители, экранирование строк
+ * и отказ от записи некорректного документа
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class JSONStreamWriterTest {
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final JSONStreamWriter writer = new JSONStreamWriter(buffer);
+
+	private String written() throws IOException {
+		writer.close();
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test public void writesNestedContainers() throws IOException {
+		writer.beginObject()
+			.key("rows").beginArray()
+				.beginObject().key("id").value(1).key("name").value("a").endObject()
+				.beginObject().key("id").value(2).key("name").nullValue().endObject()
+			.endArray()
+			.key("total").value(2.5)
+			.key("done").value(true)
+			.key("empty").beginArray().endArray()
+			.endObject();
+		assertEquals("{\"rows\":[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":null}],"
+			+ "\"total\":2.5,\"done\":true,\"empty\":[]}", written());
+	}
+
+	@Test public void writesTopLevelArrayOfMixedValues() throws IOException {
+		writer.beginArray().value("x").value(7L).value(false).value((Object)null).value((Object)3).endArray();
+		assertEquals("[\"x\",7,false,null,3]", written());
+	}
+
+	@Test public void escapesStrings() throws IOException {
+		writer.value("q\"b\\n\nr\rt\t\u0001</script>\u2028");
+		assertEquals("\"q\\\"b\\\\n\\nr\\rt\\t\\u0001<\\/script>\\u2028\"", written());
+	}
+
+	@Test public void writesNonASCIIAsUTF8() throws IOException {
+		writer.value("Привет");
+		assertEquals("\"Привет\"", written());
+	}
+
+	@Test public void reportsWhetherAnythingWasWritten() {
+		assertFalse(writer.isWritten());
+		writer.beginArray();
+		writer.flush();
+		assertTrue(writer.isWritten());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsKeyOutsideObject() {
+		writer.beginArray().key("a");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsValueWithoutKey() {
+		writer.beginObject().value(1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsTwoKeysInARow() {
+		writer.beginObject().key("a").key("b");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsMismatchedClose() {
+		writer.beginObject().endArray();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsSecondDocument() {
+		writer.value(1).value(2);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsCloseWithOpenContainers() throws IOException {
+		writer.beginObject();
+		writer.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNaN() {
+		writer.value(Double.NaN);
+	}
+
+}
@@ -0,0 +1,89 @@
+package ru.proxima.commons.ajax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+/**
+ * Проверка выбора кодировки сжатия по Accept-Encoding и корректности сжатых потоков
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class ResponseCompressionTest {
+
+	@Test public void prefersGzip() {
+		assertEquals(ResponseCompression.GZIP, ResponseCompression.negotiate("deflate, gzip"));
+		assertEquals(ResponseCompression.GZIP, ResponseCompression.negotiate("GZIP;q=0.5"));
+		assertEquals(ResponseCompression.GZIP, ResponseCompression.negotiate("*"));
+	}
+
+	@Test public void fallsBackToDeflate() {
+		assertEquals(ResponseCompression.DEFLATE, ResponseCompression.negotiate("deflate"));
+		assertEquals(ResponseCompression.DEFLATE, ResponseCompression.negotiate("gzip;q=0, deflate"));
+	}
+
+	@Test public void noSupportedEncoding() {
+		assertNull(ResponseCompression.negotiate(null));
+		assertNull(ResponseCompression.negotiate(""));
+		assertNull(ResponseCompression.negotiate("identity, br"));
+		assertNull(ResponseCompression.negotiate("gzip; q=0.000, deflate;q=0"));
+	}
+
+	@Test public void gzipRoundTrip() throws IOException {
+		final byte[] data = sample();
+		assertArrayEquals(data, read(new GZIPInputStream(new ByteArrayInputStream(
+			compress(data, ResponseCompression.GZIP)))));
+	}
+
+	@Test public void deflateRoundTrip() throws IOException {
+		final byte[] data = sample();
+		assertArrayEquals(data, read(new InflaterInputStream(new ByteArrayInputStream(
+			compress(data, ResponseCompression.DEFLATE)))));
+	}
+
+	@Test public void pooledDeflaterIsReset() throws IOException {
+		final byte[] data = sample();
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(data, read(new GZIPInputStream(new ByteArrayInputStream(
+				compress(data, ResponseCompression.GZIP)))));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownEncoding() throws IOException {
+		ResponseCompression.wrap(new ByteArrayOutputStream(), "br");
+	}
+
+	private static byte[] sample() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("{\"row\":").append(i).append(",\"name\":\"строка\"}");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] compress(byte[] data, String encoding) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (OutputStream out = ResponseCompression.wrap(buffer, encoding)) {
+			out.write(data);
+		}
+		return buffer.toByteArray();
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		final byte[] chunk = new byte[8192];
+		for (int n; (n = in.read(chunk)) > 0;) {
+			result.write(chunk, 0, n);
+		}
+		return result.toByteArray();
+	}
+
+}
@@ -0,0 +1,52 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.Collections;
+import org.junit.Test;
+import ru.proxima.commons.json.JSONArray;
+import ru.proxima.commons.json.JSONObject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+/**
+ * Проверка канонического представления параметров: независимость от порядка свойств
+ * на всех уровнях и исключение свойств верхнего уровня
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class CanonicalParamsTest {
+
+	@Test public void sortsPropertiesAtEveryLevel() {
+		final JSONObject params = new JSONObject()
+			.put("b", new JSONObject().put("z", new JSONArray().put(1).put(new JSONObject().put("q", true).put("p", "x")))
+				.put("y", "v"))
+			.put("a", 1);
+		assertEquals("{\"a\":1,\"b\":{\"y\":\"v\",\"z\":[1,{\"p\":\"x\",\"q\":true}]}}",
+			CanonicalParams.of(params, Collections.<String>emptySet()));
+	}
+
+	@Test public void propertyOrderDoesNotMatter() {
+		final JSONObject first = new JSONObject().put("from", "2020-01-01").put("to", "2020-12-31").put("page", 2);
+		final JSONObject second = new JSONObject().put("page", 2).put("to", "2020-12-31").put("from", "2020-01-01");
+		assertEquals(CanonicalParams.of(first, Collections.<String>emptySet()),
+			CanonicalParams.of(second, Collections.<String>emptySet()));
+	}
+
+	@Test public void arrayOrderMatters() {
+		final JSONObject first = new JSONObject().put("ids", new JSONArray().put(1).put(2));
+		final JSONObject second = new JSONObject().put("ids", new JSONArray().put(2).put(1));
+		assertNotEquals(CanonicalParams.of(first, Collections.<String>emptySet()),
+			CanonicalParams.of(second, Collections.<String>emptySet()));
+	}
+
+	@Test public void excludesTopLevelPropertiesOnly() {
+		final JSONObject params = new JSONObject()
+			.put("remoteAddr", "10.0.0.1")
+			.put("filter", new JSONObject().put("remoteAddr", "10.0.0.2"));
+		assertEquals("{\"filter\":{\"remoteAddr\":\"10.0.0.2\"}}",
+			CanonicalParams.of(params, Collections.singleton("remoteAddr")));
+	}
+
+	@Test public void quotesStrings() {
+		final JSONObject params = new JSONObject().put("s", "a\"b").put("n", "1");
+		assertEquals("{\"n\":\"1\",\"s\":\"a\\\"b\"}", CanonicalParams.of(params, Collections.<String>emptySet()));
+	}
+
+}
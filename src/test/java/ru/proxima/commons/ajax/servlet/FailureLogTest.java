@@ -0,0 +1,87 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import ru.proxima.commons.ajax.AJAXContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+/**
+ * Проверка сохранения сведений о запросе неудачного вызова: без core.Failures сохраняются
+ * лишь длительность и исключение, с ним - только заголовки из перечня
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class FailureLogTest {
+
+	private static final Map<String, String> HEADERS = new HashMap<>();
+	static {
+		HEADERS.put("User-Agent", "test");
+		HEADERS.put("Authorization", "Bearer secret");
+		HEADERS.put("X-Forwarded-For", "10.0.0.1");
+		HEADERS.put("X-Api-Key", "secret");
+	}
+
+	private static final HttpServletRequest REQUEST = (HttpServletRequest)Proxy.newProxyInstance(
+		FailureLogTest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getMethod":
+					return "POST";
+				case "getRemoteAddr":
+					return "192.168.0.1";
+				case "getParameterMap":
+					return Collections.singletonMap("module", new String[] {"test"});
+				case "getHeaderNames":
+					return Collections.enumeration(HEADERS.keySet());
+				case "getHeaders":
+					return Collections.enumeration(Collections.singletonList(HEADERS.get((String)args[0])));
+				default:
+					return null;
+			}
+		});
+
+	@Test public void requestIsNotRecordedWithoutFailuresRole() {
+		final FailureLog.Failure failure = record(Collections.<String, String>emptyMap());
+		assertNull(failure.method);
+		assertNull(failure.remoteAddr);
+		assertTrue(failure.parameters.isEmpty());
+		assertTrue(failure.headers.isEmpty());
+	}
+
+	@Test public void onlyDefaultHeadersAreRecorded() {
+		final FailureLog.Failure failure = record(Collections.singletonMap(Failures.ROLE_PARAMETER, "admin"));
+		assertEquals("POST", failure.method);
+		assertEquals(1, failure.parameters.size());
+		assertEquals(Collections.singletonList("User-Agent"), names(failure.headers));
+	}
+
+	@Test public void headerListIsConfigurable() {
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put(Failures.ROLE_PARAMETER, "admin");
+		parameters.put("failureHeaders", "X-Forwarded-For");
+		assertEquals(Collections.singletonList("X-Forwarded-For"), names(record(parameters).headers));
+	}
+
+	private static FailureLog.Failure record(Map<String, String> parameters) {
+		final FailureLog log = FailureLog.of(new AJAXContext(null, parameters,
+			Collections.<String, Object>emptyMap()), LoggerFactory.getLogger(FailureLogTest.class));
+		log.record(LoggerFactory.getLogger(FailureLogTest.class), "test.Action", REQUEST, null, 1000,
+			new IllegalStateException("test"));
+		return log.snapshot().get(0);
+	}
+
+	private static List<String> names(List<String[]> headers) {
+		final String[] result = new String[headers.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = headers.get(i)[0];
+		}
+		return Arrays.asList(result);
+	}
+
+}
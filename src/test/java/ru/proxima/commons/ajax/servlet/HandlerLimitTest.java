@@ -0,0 +1,103 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+/**
+ * Проверка разбора параметра limit.module.action и допуска вызовов по числу одновременных
+ * исполнений, очереди ожидания и частоте
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class HandlerLimitTest {
+
+	@Test public void parsesAllLimits() {
+		final HandlerLimit limit = HandlerLimit.parse(" concurrency=4, queue=16 ,maxWaitMs=500, rate=2.5, burst=40,");
+		assertEquals(4, limit.concurrency);
+		assertEquals(16, limit.queue);
+		assertEquals(500, limit.maxWaitMillis);
+		assertEquals(2.5, limit.rate, 0);
+		assertEquals(40, limit.burst);
+	}
+
+	@Test public void burstDefaultsToOne() {
+		assertEquals(1, HandlerLimit.parse("rate=10").burst);
+	}
+
+	@Test public void noEffectiveLimitGivesNull() {
+		assertNull(HandlerLimit.parse(""));
+		assertNull(HandlerLimit.parse("queue=10, maxWaitMs=100"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownLimit() {
+		HandlerLimit.parse("threads=4");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsItemWithoutValue() {
+		HandlerLimit.parse("concurrency");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeLimit() {
+		HandlerLimit.parse("concurrency=-1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMalformedNumber() {
+		HandlerLimit.parse("concurrency=four");
+	}
+
+	@Test public void rejectsOverConcurrencyWithoutQueue() {
+		final HandlerLimit limit = HandlerLimit.parse("concurrency=1");
+		assertEquals(HandlerLimit.ADMITTED, limit.acquire());
+		assertEquals(1, limit.getActive());
+		assertTrue(limit.acquire() >= 1);
+		assertEquals(1, limit.rejectedByConcurrency.sum());
+		limit.release();
+		assertEquals(HandlerLimit.ADMITTED, limit.acquire());
+	}
+
+	@Test public void queuedCallIsAdmittedWhenPermitFrees() throws InterruptedException {
+		final HandlerLimit limit = HandlerLimit.parse("concurrency=1, queue=1, maxWaitMs=5000");
+		assertEquals(HandlerLimit.ADMITTED, limit.acquire());
+		final CountDownLatch admitted = new CountDownLatch(1);
+		final Thread waiter = new Thread(() -> {
+			if (HandlerLimit.ADMITTED == limit.acquire()) {
+				admitted.countDown();
+			}
+		});
+		waiter.start();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (0 == limit.getWaiting() && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(1, limit.getWaiting());
+		limit.release();
+		assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		waiter.join();
+		assertEquals(0, limit.getWaiting());
+	}
+
+	@Test public void rejectsBeyondQueueLength() {
+		final HandlerLimit limit = HandlerLimit.parse("concurrency=1, queue=0, maxWaitMs=5000");
+		assertEquals(HandlerLimit.ADMITTED, limit.acquire());
+		assertEquals(5, limit.acquire());
+		assertEquals(0, limit.getWaiting());
+		assertEquals(1, limit.rejectedByConcurrency.sum());
+	}
+
+	@Test public void rejectsOverRateAfterBurst() {
+		final HandlerLimit limit = HandlerLimit.parse("rate=0.1, burst=2");
+		assertEquals(HandlerLimit.ADMITTED, limit.acquire());
+		assertEquals(HandlerLimit.ADMITTED, limit.acquire());
+		final long retryAfter = limit.acquire();
+		assertTrue(retryAfter >= 1 && retryAfter <= 10);
+		assertEquals(1, limit.rejectedByRate.sum());
+		assertEquals(0, limit.rejectedByConcurrency.sum());
+	}
+
+}
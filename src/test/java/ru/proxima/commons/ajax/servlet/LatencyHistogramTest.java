@@ -0,0 +1,65 @@
+package ru.proxima.commons.ajax.servlet;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Проверка гистограммы длительностей: точность перцентилей в пределах интервала
+ * и учёт числа, суммы и максимума значений
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test public void emptySnapshot() {
+		final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(0, snapshot.count);
+		assertEquals(0, snapshot.percentile(0.5));
+		assertEquals(0, snapshot.percentile(0.999));
+	}
+
+	@Test public void smallValuesAreExact() {
+		for (long value = 0; value < 16; value++) {
+			histogram.record(value);
+		}
+		final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(16, snapshot.count);
+		assertEquals(120, snapshot.sum);
+		assertEquals(15, snapshot.max);
+		assertEquals(7, snapshot.percentile(0.5));
+		assertEquals(15, snapshot.percentile(1));
+	}
+
+	@Test public void percentilesStayWithinBucketError() {
+		for (long value = 1; value <= 100_000; value++) {
+			histogram.record(value * 1000);
+		}
+		final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+			final double exact = Math.ceil(quantile * 100_000) * 1000;
+			final long estimate = snapshot.percentile(quantile);
+			assertTrue(quantile + ": " + estimate + " < " + exact, estimate >= exact);
+			assertTrue(quantile + ": " + estimate + " > " + exact, estimate <= exact * 1.0625);
+		}
+	}
+
+	@Test public void percentileDoesNotExceedMax() {
+		histogram.record(1_000_001);
+		assertEquals(1_000_001, histogram.snapshot().percentile(0.99));
+	}
+
+	@Test public void negativeDurationCountsAsZero() {
+		histogram.record(-5);
+		final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1, snapshot.count);
+		assertEquals(0, snapshot.sum);
+		assertEquals(0, snapshot.percentile(0.5));
+	}
+
+	@Test public void handlesLargestValues() {
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.snapshot().percentile(0.5));
+	}
+
+}
@@ -0,0 +1,71 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+import ru.proxima.commons.ajax.ResponseCompression;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+/**
+ * Проверка валидаторов сериализованного ответа: ETag по содержимому, ETag сжатого представления
+ * и слабое сравнение с If-None-Match
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class SerializedBodyTest {
+
+	private static final String ETAG = "\"abc\"";
+
+	@Test public void etagDependsOnContentOnly() {
+		final String etag = SerializedBody.of("{\"a\":1}").etag();
+		assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+		assertEquals(etag, SerializedBody.of("{\"a\":1}").etag());
+		assertNotEquals(etag, SerializedBody.of("{\"a\":2}").etag());
+	}
+
+	@Test public void encodedETagAddsEncodingSuffix() {
+		assertEquals("\"abc-gzip\"", SerializedBody.encodedETag(ETAG, ResponseCompression.GZIP));
+	}
+
+	@Test public void matchesExactAndWeakValidators() {
+		assertTrue(SerializedBody.matches(ETAG, ETAG));
+		assertTrue(SerializedBody.matches("W/\"abc\"", ETAG));
+		assertTrue(SerializedBody.matches("\"x\", \"abc\"", ETAG));
+		assertTrue(SerializedBody.matches("*", ETAG));
+	}
+
+	@Test public void compressedAndPlainRepresentationsMatch() {
+		assertTrue(SerializedBody.matches("\"abc-gzip\"", ETAG));
+		assertTrue(SerializedBody.matches(ETAG, "\"abc-deflate\""));
+		assertTrue(SerializedBody.matches("W/\"abc-deflate\"", "\"abc-gzip\""));
+	}
+
+	@Test public void doesNotMatchOtherValidators() {
+		assertFalse(SerializedBody.matches(null, ETAG));
+		assertFalse(SerializedBody.matches("\"abd\"", ETAG));
+		assertFalse(SerializedBody.matches("\"abc-br\"", ETAG));
+	}
+
+	@Test public void encodedBodyIsComputedOnceAndDecompresses() throws IOException {
+		final byte[] bytes = "{\"rows\":[1,2,3,4,5,6,7,8,9,10]}".getBytes(StandardCharsets.UTF_8);
+		final SerializedBody body = new SerializedBody(bytes);
+		final byte[] gzip = body.encoded(ResponseCompression.GZIP);
+		assertSame(gzip, body.encoded(ResponseCompression.GZIP));
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+			final ByteArrayOutputStream result = new ByteArrayOutputStream();
+			final byte[] chunk = new byte[256];
+			for (int n; (n = in.read(chunk)) > 0;) {
+				result.write(chunk, 0, n);
+			}
+			assertArrayEquals(bytes, result.toByteArray());
+		}
+	}
+
+}
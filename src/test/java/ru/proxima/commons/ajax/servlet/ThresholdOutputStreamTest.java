@@ -0,0 +1,90 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import ru.proxima.commons.ajax.ResponseCompression;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+/**
+ * Проверка потока ответа с порогом сжатия: короткий ответ, превышение порога и явный flush()
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class ThresholdOutputStreamTest {
+
+	private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+	private final Map<String, Object> headers = new HashMap<>();
+	private boolean committed;
+
+	private final HttpServletResponse response = (HttpServletResponse)Proxy.newProxyInstance(
+		getClass().getClassLoader(), new Class<?>[] {HttpServletResponse.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "setHeader":
+					headers.put((String)args[0], args[1]);
+					return null;
+				case "setContentLength":
+					headers.put("Content-Length", args[0]);
+					return null;
+				case "getOutputStream":
+					return new ServletOutputStream() {
+						@Override public void write(int b) {
+							sent.write(b);
+						}
+						@Override public void flush() {
+							committed = true;
+						}
+						@Override public boolean isReady() {
+							return true;
+						}
+						@Override public void setWriteListener(WriteListener listener) {
+						}
+					};
+				default:
+					return null;
+			}
+		});
+
+	@Test public void shortResponseIsSentWithContentLength() throws IOException {
+		final ThresholdOutputStream out = new ThresholdOutputStream(response, ResponseCompression.GZIP, 16);
+		out.write(bytes("short"));
+		assertEquals(0, sent.size());
+		out.close();
+		assertEquals("short", sent.toString("UTF-8"));
+		assertEquals(5, headers.get("Content-Length"));
+		assertNull(headers.get("Content-Encoding"));
+	}
+
+	@Test public void longResponseIsCompressed() throws IOException {
+		final ThresholdOutputStream out = new ThresholdOutputStream(response, ResponseCompression.GZIP, 4);
+		out.write(bytes("long enough"));
+		out.close();
+		assertEquals(ResponseCompression.GZIP, headers.get("Content-Encoding"));
+		assertNull(headers.get("Content-Length"));
+	}
+
+	@Test public void flushCommitsUncompressedOutput() throws IOException {
+		final ThresholdOutputStream out = new ThresholdOutputStream(response, ResponseCompression.GZIP, 16);
+		out.write(bytes("part"));
+		out.flush();
+		assertTrue(committed);
+		assertEquals("part", sent.toString("UTF-8"));
+		out.write(bytes(" and the rest of it"));
+		out.close();
+		assertEquals("part and the rest of it", sent.toString("UTF-8"));
+		assertNull(headers.get("Content-Encoding"));
+		assertNull(headers.get("Content-Length"));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,56 @@
+package ru.proxima.commons.ajax.servlet;
+
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import ru.proxima.commons.ajax.AJAXBusinessException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+/**
+ * Проверка создания подписчиков концентратора тем: только с темами и в пределах
+ * общего ограничения и ограничения клиента
+ * @author Шомин Владимир, ЗАО ИВЦ Инсофт
+ */
+public class TopicHubTest {
+
+	private static final List<String> TOPICS = Collections.singletonList("news");
+
+	private final TopicHub hub = new TopicHub(10, 60000, 3, 2);
+
+	@After public void tearDown() {
+		hub.shutdown();
+	}
+
+	@Test public void subscriberIsNotCreatedWithoutTopics() {
+		assertCode("topics_required", null, null, "a");
+		assertCode("topics_required", "unknown", Collections.<String>emptyList(), "a");
+		assertEquals(0, hub.size());
+	}
+
+	@Test public void clientLimitIsEnforced() throws AJAXBusinessException {
+		hub.poll(null, TOPICS, "a");
+		hub.poll(null, TOPICS, "a");
+		assertCode("topics_client_full", null, TOPICS, "a");
+		hub.poll(null, TOPICS, "b");
+		assertEquals(3, hub.size());
+	}
+
+	@Test public void totalLimitIsEnforced() throws AJAXBusinessException {
+		hub.poll(null, TOPICS, "a");
+		hub.poll(null, TOPICS, "b");
+		hub.poll(null, TOPICS, "c");
+		assertCode("topics_full", null, TOPICS, "d");
+		assertEquals(3, hub.size());
+	}
+
+	private void assertCode(String code, String id, List<String> names, String client) {
+		try {
+			hub.poll(id, names, client);
+			fail("Ожидалась ошибка " + code);
+		} catch (AJAXBusinessException ex) {
+			assertEquals(code, ex.getCode());
+		}
+	}
+
+}